@@ -1,7 +1,7 @@
 package examples.mmcc;
 
 import java.util.Arrays;
-import java.util.Random;
+import java.util.function.DoubleConsumer;
 
 import general.Counter;
 import general.SystemState;
@@ -9,6 +9,7 @@ import general.annotations.AutoCounter;
 import general.annotations.AutoMeasure;
 import general.annotations.Initialize;
 import general.annotations.StopCriterium;
+import general.random.RandomStream;
 
 /**
  * This class models the system state for a typical M/M/c/c queuing system.
@@ -19,7 +20,6 @@ import general.annotations.StopCriterium;
 
 public class MMCCState extends SystemState<MMCCState> {
 		
-	private Random random;
 	private final int[][] weights;
 	private final int[] seats;
 	private final int[] revs;
@@ -30,8 +30,17 @@ public class MMCCState extends SystemState<MMCCState> {
 	private final Counter[] soldOutProducts = new Counter[products];
 	private final Counter[] arrivalsArray = new Counter[3];
 	private final String question;
-	private long prevSeed;
-	private boolean evenIteration;
+	
+	// one stream per purpose, so configurations compared with the same seed use common random numbers
+	private final RandomStream[] arrivalStreams = new RandomStream[3];
+	private final RandomStream choices;
+	
+	// reused on every arrival, so scheduling and handling arrivals does not allocate
+	private final DoubleConsumer arrivalBusiness = this::doArrivalBusiness;
+	private final DoubleConsumer arrivalLeisure = this::doArrivalLeisure;
+	private final DoubleConsumer arrivalEconomy = this::doArrivalEconomy;
+	private final int[] availability = new int[products];
+	private final double[] probs = new double[products];
 	
 	
 	
@@ -140,9 +149,10 @@ public class MMCCState extends SystemState<MMCCState> {
 		this.mu = mu;
 		this.sigma = sigma;
 		this.question = question;
-		this.prevSeed = seed;
-		random = new Random(seed);
-		evenIteration = false;
+		arrivalStreams[0] = getRandom("arrivals business");
+		arrivalStreams[1] = getRandom("arrivals leisure");
+		arrivalStreams[2] = getRandom("arrivals economy");
+		choices = getRandom("choices");
 		
 		soldProducts[0] = soldA;
 		soldProducts[1] = soldB;
@@ -177,37 +187,43 @@ public class MMCCState extends SystemState<MMCCState> {
 		double lambdaLeisure = (0.6*179)/179;
 		double lambdaEconomy = 0.8*(1-(Math.sin((Math.PI*179) / 180)));		
 		
-		double nextArrivalTimesBusiness = Utils.nextArrivalTime(random, 0, 0);
-		addEvent(nextArrivalTimesBusiness, this::doArrivalBusiness);
+		double nextArrivalTimesBusiness = Utils.nextArrivalTime(arrivalStreams[0], 0, 0);
+		if (nextArrivalTimesBusiness < Double.POSITIVE_INFINITY) {
+			addEvent(nextArrivalTimesBusiness, arrivalBusiness);
+		}
 		
-		double nextArrivalTimesLeisure = Utils.nextArrivalTime(random, 0, 1);
-		addEvent(nextArrivalTimesLeisure, this::doArrivalLeisure);
+		double nextArrivalTimesLeisure = Utils.nextArrivalTime(arrivalStreams[1], 0, 1);
+		if (nextArrivalTimesLeisure < Double.POSITIVE_INFINITY) {
+			addEvent(nextArrivalTimesLeisure, arrivalLeisure);
+		}
 		
-		double nextArrivalTimesEconomy = Utils.nextArrivalTime(random, 0, 2);
-		addEvent(nextArrivalTimesEconomy, this::doArrivalEconomy);
+		double nextArrivalTimesEconomy = Utils.nextArrivalTime(arrivalStreams[2], 0, 2);
+		if (nextArrivalTimesEconomy < Double.POSITIVE_INFINITY) {
+			addEvent(nextArrivalTimesEconomy, arrivalEconomy);
+		}
 		
 		/*
 		if (question == "a" || question == "b" || question == "c" || question == "d") {
-			double nextArrivalTimesBusiness = Utils.nextInterArrivalTime(random, lambdaBusiness, true);
+			double nextArrivalTimesBusiness = Utils.nextInterArrivalTime(arrivalStreams[0], lambdaBusiness);
 			addEvent(nextArrivalTimesBusiness, this::doArrivalBusiness);
 			System.out.println(nextArrivalTimesBusiness);
 			
-			double nextArrivalTimesLeisure = Utils.nextInterArrivalTime(random, lambdaLeisure, true);
+			double nextArrivalTimesLeisure = Utils.nextInterArrivalTime(arrivalStreams[1], lambdaLeisure);
 			addEvent(nextArrivalTimesLeisure, this::doArrivalLeisure);
 			System.out.println(nextArrivalTimesLeisure);
 			
-			double nextArrivalTimesEconomy = Utils.nextInterArrivalTime(random, lambdaEconomy, true);
+			double nextArrivalTimesEconomy = Utils.nextInterArrivalTime(arrivalStreams[2], lambdaEconomy);
 			addEvent(nextArrivalTimesEconomy, this::doArrivalEconomy);
 			System.out.println(nextArrivalTimesEconomy);
 		}
 		else {
-			double nextArrivalTimesBusiness = Utils.nextInterArrivalTimeNormal(random, mu[0], sigma[0], true);
+			double nextArrivalTimesBusiness = Utils.nextInterArrivalTimeNormal(arrivalStreams[0], mu[0], sigma[0]);
 			addEvent(nextArrivalTimesBusiness, this::doArrivalBusiness);
 			
-			double nextArrivalTimesLeisure = Utils.nextInterArrivalTimeNormal(random, mu[1], sigma[1], true);
+			double nextArrivalTimesLeisure = Utils.nextInterArrivalTimeNormal(arrivalStreams[1], mu[1], sigma[1]);
 			addEvent(nextArrivalTimesLeisure, this::doArrivalLeisure);
 			
-			double nextArrivalTimesEconomy = Utils.nextInterArrivalTimeNormal(random, mu[2], sigma[2], true);
+			double nextArrivalTimesEconomy = Utils.nextInterArrivalTimeNormal(arrivalStreams[2], mu[2], sigma[2]);
 			addEvent(nextArrivalTimesEconomy, this::doArrivalEconomy);
 		}
 		*/
@@ -237,8 +253,7 @@ public class MMCCState extends SystemState<MMCCState> {
 	
 	public void doArrival(double eventTime, int passenger, double muArrival, double sigmaArrival) {
 		double newTime = eventTime;
-		int availability[] = new int[products];
-		double probs[] = new double[products];
+		Arrays.fill(availability, 0);
 				
 		// update counter for total nr of arrivals
 		arrivals.increment();
@@ -324,18 +339,7 @@ public class MMCCState extends SystemState<MMCCState> {
 		
 	
 		// choose product
-		double r;
-		if (question == "a" || question == "b") {
-			r = random.nextDouble();
-		}
-		else {
-			if (evenIteration) {
-				r = random.nextDouble();
-			}
-			else {
-				r = 1-random.nextDouble();
-			}
-		}
+		double r = choices.nextDouble();
 		boolean stillChoosing = true;
 		int iteration = 0;
 		while (stillChoosing) {
@@ -354,12 +358,7 @@ public class MMCCState extends SystemState<MMCCState> {
 					int increment = 0;
 					
 					//Generate new random number
-					if (evenIteration) {
-						rand = random.nextDouble();
-					}
-					else {
-						rand = 1-random.nextDouble();
-					}
+					rand = choices.nextDouble();
 					
 					//Choose amount of products
 					if (rand < 0.55) {
@@ -452,27 +451,27 @@ public class MMCCState extends SystemState<MMCCState> {
 		
 		//Question a and b
 		if (question == "a" || question == "b") {
-			nextArrivalTime= currentTime + Utils.nextInterArrivalTime(random, lambda, true);
-			//nextArrivalTime = Utils.nextArrivalTime(random, newTime, passenger);
+			nextArrivalTime= currentTime + Utils.nextInterArrivalTime(arrivalStreams[passenger], lambda);
+			//nextArrivalTime = Utils.nextArrivalTime(arrivalStreams[passenger], newTime, passenger);
 		}
 		//Question c and d
 		else if (question == "c" || question == "d") {
-			nextArrivalTime= currentTime + Utils.nextInterArrivalTime(random, lambda, evenIteration);
+			nextArrivalTime= currentTime + Utils.nextInterArrivalTime(arrivalStreams[passenger], lambda);
 		}	
 		//Question e
 		else {
-			nextArrivalTime = currentTime + Utils.nextInterArrivalTimeNormal(random, muArrival, sigmaArrival, evenIteration);
+			nextArrivalTime = currentTime + Utils.nextInterArrivalTimeNormal(arrivalStreams[passenger], muArrival, sigmaArrival);
 		}
 		
 		// call next arrival method
 		if (passenger == 0) {
-			addEvent(nextArrivalTime, this::doArrivalBusiness);
+			addEvent(nextArrivalTime, arrivalBusiness);
 		}
 		else if (passenger == 1) {
-			addEvent(nextArrivalTime, this::doArrivalLeisure);
+			addEvent(nextArrivalTime, arrivalLeisure);
 		}
 		else {
-			addEvent(nextArrivalTime, this::doArrivalEconomy);
+			addEvent(nextArrivalTime, arrivalEconomy);
 		}
 	}
 	
@@ -595,17 +594,6 @@ public class MMCCState extends SystemState<MMCCState> {
 
 	@Override
 	public void reset() {
-				
-		if (question != "a" || question != "b") {
-			evenIteration = !evenIteration;
-
-			// Store seed value from even iterations
-			if (evenIteration) {
-				prevSeed = random.nextLong();
-			}
-
-			// reuse seed value
-			random = new Random(prevSeed);
-		}
+		// counters are reset automatically, and the random streams are reseeded by seedReplication
 	}
 }
@@ -1,5 +1,7 @@
 package examples.mmcc;
 
+import java.util.function.Supplier;
+
 import general.Replication;
 import general.Simulation;
 import general.automagic.AutoReplication;
@@ -21,11 +23,18 @@ public class Main {
 		double[] sigma = {0.2, 0.1, 0.15};
 		String question = "a";
 		
-		MMCCState state = new MMCCState(timeHorizon, seed, weights, seats, revs, mu, sigma, question);
-		Replication<MMCCState> replication = new AutoReplication<>(state);
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		
+		// every worker thread gets its own state and replication
+		Supplier<Replication<MMCCState>> factory = () -> {
+			MMCCState state = new MMCCState(timeHorizon, seed, weights, seats, revs, mu, sigma, question);
+			return new AutoReplication<>(state);
+		};
 		
-		Simulation<MMCCState> simulation = new Simulation<>(replication);
-		simulation.run(n);
+		Simulation<MMCCState> simulation = new Simulation<>(factory);
+		// questions a and b are answered with independent replications, the others with antithetic pairs
+		simulation.setAntithetic(!question.equals("a") && !question.equals("b"));
+		simulation.run(n, parallelism);
 		simulation.printEstimates();
 	}
 }
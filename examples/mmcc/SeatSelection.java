@@ -0,0 +1,59 @@
+package examples.mmcc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import general.RankingAndSelection;
+import general.automagic.AutoReplication;
+
+/**
+ * Selects the seat allocation with the largest expected revenue for question a, from the same allocations as 
+ * {@link SeatSweep}, with a ranking-and-selection procedure: allocations that are clearly worse are dropped after a few 
+ * replications, so far fewer replications are needed than for estimating every allocation precisely.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class SeatSelection {
+
+	public static void main(String[] args) {
+		// parameters
+		
+		double timeHorizon = 179;
+		long seed = 0;
+		int[][] weights = {{11, 15, 18, 20, 19, 15, 12, 11, 13, 8},
+							{8, 9, 11, 12, 14, 15, 16, 18, 20, 8}, 
+							{1, 5, 8, 10, 11, 12, 13, 15, 20, 8}};
+		int[] revs = {1000, 900, 850, 750, 700, 650, 600, 500, 350, 0};
+		double[] mu = {0.8, 0.4, 0.6};
+		double[] sigma = {0.2, 0.1, 0.15};
+		String question = "a";
+		double indifference = 500;
+		double confidence = 0.95;
+		
+		List<int[]> allocations = new ArrayList<>();
+		for (int moved = 0; moved <= 20; moved += 2) {
+			int[] seats = {20,20,20,20,20,20,20,20,20,Integer.MAX_VALUE};
+			seats[0] += moved;
+			seats[8] -= moved;
+			allocations.add(seats);
+		}
+		
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		
+		// the same seed for every allocation, so they are compared with common random numbers
+		RankingAndSelection<int[], MMCCState> selection = new RankingAndSelection<>(allocations, seats -> 
+				new AutoReplication<>(new MMCCState(timeHorizon, seed, weights, seats, revs, mu, sigma, question)), 
+				"Total revenue");
+		int best = selection.select(indifference, confidence, parallelism);
+		
+		for (int i = 0; i < allocations.size(); i++) {
+			int[] seats = allocations.get(i);
+			System.out.println(Arrays.toString(Arrays.copyOf(seats, seats.length - 1)) + " " 
+					+ selection.getPerformanceMeasure(i) + " after " + selection.getReplications(i) + " replications");
+		}
+		System.out.println("Best: " + Arrays.toString(Arrays.copyOf(allocations.get(best), allocations.get(best).length - 1)) 
+				+ ", " + selection.getTotalReplications() + " replications in total");
+	}
+}
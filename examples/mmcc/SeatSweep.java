@@ -0,0 +1,60 @@
+package examples.mmcc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import general.ParameterSweep;
+import general.PerformanceMeasure;
+import general.Simulation;
+import general.automagic.AutoReplication;
+
+/**
+ * Compares seat allocations for question a in one parallel run: seats are moved from the cheapest product to the most 
+ * expensive one, two at a time, and the expected revenue of every allocation is printed.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class SeatSweep {
+
+	public static void main(String[] args) {
+		// parameters
+		
+		double timeHorizon = 179;
+		long n = 2000;
+		long seed = 0;
+		int[][] weights = {{11, 15, 18, 20, 19, 15, 12, 11, 13, 8},
+							{8, 9, 11, 12, 14, 15, 16, 18, 20, 8}, 
+							{1, 5, 8, 10, 11, 12, 13, 15, 20, 8}};
+		int[] revs = {1000, 900, 850, 750, 700, 650, 600, 500, 350, 0};
+		double[] mu = {0.8, 0.4, 0.6};
+		double[] sigma = {0.2, 0.1, 0.15};
+		String question = "a";
+		
+		List<int[]> allocations = new ArrayList<>();
+		for (int moved = 0; moved <= 20; moved += 2) {
+			int[] seats = {20,20,20,20,20,20,20,20,20,Integer.MAX_VALUE};
+			seats[0] += moved;
+			seats[8] -= moved;
+			allocations.add(seats);
+		}
+		
+		int parallelism = Runtime.getRuntime().availableProcessors();
+		
+		// the same seed for every allocation, so they are compared with common random numbers
+		ParameterSweep<int[], MMCCState> sweep = new ParameterSweep<>(allocations, seats -> 
+				new AutoReplication<>(new MMCCState(timeHorizon, seed, weights, seats, revs, mu, sigma, question)));
+		sweep.run(n, parallelism);
+		
+		for (int i = 0; i < allocations.size(); i++) {
+			Simulation<MMCCState> simulation = sweep.getSimulation(i);
+			int[] seats = allocations.get(i);
+			for (PerformanceMeasure<MMCCState> pm : simulation.getPerformanceMeasures()) {
+				if (pm.getName().equals("Total revenue")) {
+					System.out.println(Arrays.toString(Arrays.copyOf(seats, seats.length - 1)) + " " + pm);
+				}
+			}
+		}
+	}
+}
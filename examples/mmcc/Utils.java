@@ -2,6 +2,9 @@ package examples.mmcc;
 
 import java.util.Random;
 
+import general.random.NonhomogeneousPoissonProcess;
+import general.random.Variates;
+
 /**
  * This is a "static" class for library routines. At the moment, it is only used for generating inter-arrival and service times. 
  * Note that when drawing from statistical distributions outside the course Simulation, it is better if you use a library like Apache Math, as it has an entire 
@@ -20,41 +23,31 @@ public final class Utils {
 	/**
 	 * @param random	{@link Random} object used to draw pseudo-random numbers
 	 * @param lambda	Arrival rate
-	 * @param evenIteration	
 	 * @return			Returns a realization drawn from an exponential distribution, with rate {@code lambda}, 
 	 * 					representing the next inter-arrival time.
 	 */
-	public static double nextInterArrivalTime(Random random, double lambda, boolean evenIteration) {
-		double r;
-		if (evenIteration) {
-			r = random.nextDouble();
-		}
-		else {
-			r = 1-random.nextDouble();
-		}
+	public static double nextInterArrivalTime(Random random, double lambda) {
+		// inversion instead of Variates.exponential, so antithetic replications get negatively correlated arrivals
+		double r = random.nextDouble();
 		return -Math.log(1-r)/lambda;
 	}
 	
+	// the intensities of the passenger classes over the selling horizon [0, 179]
+	private static final NonhomogeneousPoissonProcess[] ARRIVALS = {
+			new NonhomogeneousPoissonProcess(t -> lambda(179 - t, 0), 0, 179),
+			new NonhomogeneousPoissonProcess(t -> lambda(179 - t, 1), 0, 179),
+			new NonhomogeneousPoissonProcess(t -> lambda(179 - t, 2), 0, 179)
+	};
+	
 	/**
 	 * @param random	{@link Random} object used to draw pseudo-random numbers
-	 * @param lambda	Arrival rate
-	 * @param evenIteration	
-	 * @return			Returns a realization drawn from an exponential distribution, with rate {@code lambda}, 
-	 * 					representing the next inter-arrival time.
+	 * @param time		Current time
+	 * @param passenger	Passenger class: 0 for business, 1 for leisure, 2 for economy
+	 * @return			Returns the next arrival time after {@code time} of the non-homogeneous Poisson process of 
+	 * 					the passenger class, or {@code Double.POSITIVE_INFINITY} if there is none before time 179.
 	 */
 	public static double nextArrivalTime(Random random, double time, int passenger) {
-		double u1;
-		double u2;
-		double t = time;
-		double[] lambdaMax = {1.2, 0.6, 0.8};
-		while (true) {
-			u1 = random.nextDouble();
-			u2 = random.nextDouble();
-			t = t - Math.log(u1)/lambdaMax[passenger];
-			if (t > 179 || u2 <= lambda(179 - t, passenger)/lambdaMax[passenger]) {
-				return t;
-			}
-		}
+		return ARRIVALS[passenger].nextArrivalTime(random, time);
 	}
 	
 	static double lambda(double t, int passenger) {
@@ -75,65 +68,14 @@ public final class Utils {
 	
 	/**
 	 * @param random	{@link Random} object used to draw pseudo-random numbers
-	 * @param mu	Arrival rate
+	 * @param mu	Mean inter-arrival time
 	 * @param sigma	Standard deviation
-	 * @param evenIteration	true for even iterations, false for uneven iterations
-	 * @return			Returns a realization drawn from an exponential distribution, with rate {@code lambda}, 
-	 * 					representing the next inter-arrival time.
+	 * @return			Returns a realization drawn from a normal distribution with mean {@code mu} and standard deviation 
+	 * 					{@code sigma}, conditioned on being positive, representing the next inter-arrival time.
 	 */
-	public static double nextInterArrivalTimeNormal(Random random, double mu, double sigma, boolean evenIteration) {
-		double u1;
-		double u2;
-		boolean outOfRange = true;
-		double y1;
-		double y2;
-		double z;
-		double inter = 0;
-		
-		
-		if (evenIteration) {
-			while (outOfRange) {
-				u1 = random.nextDouble();
-				u2 = random.nextDouble();
-				y1 = -Math.log(u1);
-				y2 = -Math.log(u2);
-				
-				if (y2 >= Math.pow(y1-1, 2)/2) {
-					if (random.nextDouble() <= 0.5) {
-						z = y1;
-					}
-					else {
-						z = -y1;
-					}
-					inter = mu + z * sigma;
-					if (inter>0) {
-						outOfRange = false;
-					}
-				}
-			}
-		}
-		else {
-			while (outOfRange) {
-				u1 = 1- random.nextDouble();
-				u2 = 1- random.nextDouble();
-				y1 = -Math.log(u1);
-				y2 = -Math.log(u2);
-				
-				if (y2 >= Math.pow(y1-1, 2)/2) {
-					if (random.nextDouble() <= 0.5) {
-						z = y1;
-					}
-					else {
-						z = -y1;
-					}
-					inter = mu + z * sigma;
-					if (inter>0) {
-						outOfRange = false;
-					}
-				}
-			}
-		}
-		return inter;
+	public static double nextInterArrivalTimeNormal(Random random, double mu, double sigma) {
+		// a normal inter-arrival time conditioned on being positive
+		return Variates.truncatedNormal(random, mu, sigma, 0, Double.POSITIVE_INFINITY);
 	}
 	
 }
@@ -0,0 +1,305 @@
+package general;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import general.statistics.SummaryStatistics;
+
+/**
+ * Estimates steady-state performance measures from one long run with the method of batch means, instead of the
+ * many independent replications of {@link Simulation}. The warm-up of the model is thus done only once.
+ *
+ * The run, from the end of the warm-up period up to the time horizon of the {@link SystemState}, is divided into a
+ * number of short intervals of equal length. At the end of every interval the values of all counters are copied from
+ * the {@link CounterBank} of the state. A batch consists of a number of consecutive intervals; the value of a performance
+ * measure in a batch is computed by temporarily loading the counters with their increase during the batch.
+ * The number of intervals per batch is doubled until the lag-1 autocorrelation of the batch values of every performance
+ * measure is at most {@link #getMaxAutocorrelation()}, or until only {@link #MIN_BATCHES} batches would be left.
+ * The estimates are the mean of the batch values and its standard error.
+ *
+ * Performance measures should only depend on the counters of the state, and the counters should accumulate,
+ * as a performance measure is computed from the increase of the counters.
+ *
+ * @author Nemanja Milovanovic
+ *
+ * @param <S> A user-defined system state class.
+ */
+public class BatchMeansSimulation<S extends SystemState<S>> {
+
+	/**
+	 * Smallest number of batches the estimates are computed from.
+	 */
+	public static final int MIN_BATCHES = 10;
+
+	private static final int DEFAULT_INTERVALS = 1024;
+	private static final double DEFAULT_MAX_AUTOCORRELATION = 0.1;
+
+	private final Replication<S> replication;
+	private final List<PerformanceMeasure<S>> measures;
+	private final int intervals;
+	private double maxAutocorrelation = DEFAULT_MAX_AUTOCORRELATION;
+	private Status status;
+
+	private double[][] snapshots;
+	private int recorded;
+	private int batchSize;
+	private int batchCount;
+	private double intervalLength;
+	private double[] autocorrelations;
+
+	public BatchMeansSimulation(Replication<S> replication) {
+		this(replication, replication.getSystemState().getAutomaticMeasures());
+	}
+
+	public BatchMeansSimulation(
+			Replication<S> replication,
+			List<PerformanceMeasure<S>> measures) {
+		this(replication, measures, DEFAULT_INTERVALS);
+	}
+
+	/**
+	 * @param replication	Replication that is run once
+	 * @param measures		Performance measures to estimate
+	 * @param intervals		Number of intervals the run is divided into, the smallest possible batches
+	 */
+	public BatchMeansSimulation(
+			Replication<S> replication,
+			List<PerformanceMeasure<S>> measures,
+			int intervals) {
+		if (intervals < 2 * MIN_BATCHES) {
+			throw new IllegalArgumentException("Number of intervals must be >= " + (2 * MIN_BATCHES));
+		}
+		this.replication = replication;
+		this.intervals = intervals;
+		// Copy and sort the performance measures to make output always consistent
+		this.measures = new ArrayList<>(measures);
+		this.measures.sort((pm1, pm2) -> pm1.getName().compareTo(pm2.getName()));
+	}
+
+	/**
+	 * Sets the largest lag-1 autocorrelation between batches that is accepted when the batch size is chosen.
+	 *
+	 * @param maxAutocorrelation	Largest accepted autocorrelation, between 0 and 1
+	 */
+	public void setMaxAutocorrelation(double maxAutocorrelation) {
+		if (!(maxAutocorrelation > 0 && maxAutocorrelation < 1)) {
+			throw new IllegalArgumentException("Autocorrelation must be strictly between 0 and 1");
+		}
+		this.maxAutocorrelation = maxAutocorrelation;
+	}
+
+	/**
+	 *
+	 * @return Returns the largest lag-1 autocorrelation between batches that is accepted when the batch size is chosen
+	 */
+	public double getMaxAutocorrelation() {
+		return maxAutocorrelation;
+	}
+
+	/**
+	 * Runs the replication once, without a warm-up period.
+	 */
+	public void run() {
+		run(0);
+	}
+
+	/**
+	 * Runs the replication once and computes the estimates from the batches after <code>warmUp</code>.
+	 *
+	 * @param warmUp	Length of the warm-up period, which is not used for the estimates
+	 */
+	public void run(double warmUp) {
+		S state = replication.getSystemState();
+		if (!(warmUp >= 0 && warmUp < state.getTimeHorizon())) {
+			status = Status.FAILED;
+			throw new IllegalArgumentException("Warm-up period must be >= 0 and shorter than the time horizon");
+		}
+		status = Status.ACTIVE;
+		CounterBank bank = state.getCounterBank();
+		snapshots = new double[intervals + 1][];
+		recorded = 0;
+		intervalLength = (state.getTimeHorizon() - warmUp) / intervals;
+
+		state.seedReplication(0);
+		replication.reset();
+		replication.initialize();
+		Runnable boundary = new Runnable() {
+			@Override
+			public void run() {
+				snapshots[recorded] = bank.snapshot();
+				recorded++;
+				if (recorded <= intervals) {
+					state.addEvent(warmUp + recorded * intervalLength, this);
+				}
+			}
+		};
+		state.addEvent(warmUp, boundary);
+		replication.run();
+
+		if (replication.getStatus() == Status.FAILED) {
+			status = Status.FAILED;
+			throw new IllegalStateException("The replication failed.");
+		}
+		int completed = recorded - 1;
+		if (completed < 2 * MIN_BATCHES) {
+			status = Status.FAILED;
+			throw new IllegalStateException("The replication stopped after " + Math.max(completed, 0) + " of "
+					+ intervals + " intervals, but at least " + (2 * MIN_BATCHES) + " are needed.");
+		}
+
+		double[] end = bank.snapshot();
+		try {
+			computeEstimates(state, completed);
+		}
+		finally {
+			bank.load(end);
+		}
+		status = Status.SUCCESS;
+	}
+
+	private void computeEstimates(S state, int completed) {
+		int size = 1;
+		double[][] values = batchValues(state, size, completed);
+		double[] rho = autocorrelations(values);
+		while (max(rho) > maxAutocorrelation && completed / (2 * size) >= MIN_BATCHES) {
+			size *= 2;
+			values = batchValues(state, size, completed);
+			rho = autocorrelations(values);
+		}
+		batchSize = size;
+		batchCount = values[0].length;
+		autocorrelations = rho;
+		for (int j = 0; j < measures.size(); j++) {
+			SummaryStatistics statistics = new SummaryStatistics();
+			for (double v : values[j]) {
+				statistics.add(v);
+			}
+			measures.get(j).setStatistics(statistics);
+		}
+	}
+
+	/**
+	 * @return Returns the value of every performance measure in every batch of <code>size</code> intervals
+	 */
+	private double[][] batchValues(S state, int size, int completed) {
+		CounterBank bank = state.getCounterBank();
+		double[] initial = bank.getInitialValues();
+		double[] delta = new double[initial.length];
+		int count = completed / size;
+		double[][] values = new double[measures.size()][count];
+		for (int b = 0; b < count; b++) {
+			double[] from = snapshots[b * size];
+			double[] to = snapshots[(b + 1) * size];
+			for (int c = 0; c < delta.length; c++) {
+				delta[c] = initial[c] + to[c] - from[c];
+			}
+			bank.load(delta);
+			for (int j = 0; j < measures.size(); j++) {
+				values[j][b] = measures.get(j).compute(state);
+			}
+		}
+		return values;
+	}
+
+	private static double[] autocorrelations(double[][] values) {
+		double[] rho = new double[values.length];
+		for (int j = 0; j < values.length; j++) {
+			rho[j] = lag1Autocorrelation(values[j]);
+		}
+		return rho;
+	}
+
+	private static double lag1Autocorrelation(double[] x) {
+		double mean = 0;
+		for (double v : x) {
+			mean += v;
+		}
+		mean /= x.length;
+		double num = 0;
+		double den = 0;
+		for (int i = 0; i < x.length; i++) {
+			double d = x[i] - mean;
+			den += d * d;
+			if (i + 1 < x.length) {
+				num += d * (x[i + 1] - mean);
+			}
+		}
+		return den == 0 ? 0 : num / den;
+	}
+
+	private static double max(double[] x) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (double v : x) {
+			// a NaN autocorrelation can not be improved by larger batches
+			if (!Double.isNaN(v)) {
+				max = Math.max(max, Math.abs(v));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 *
+	 * @return Returns the status of the DES.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 *
+	 * @return Returns the number of intervals per batch chosen in the last run
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 *
+	 * @return Returns the number of batches the estimates of the last run are based on
+	 */
+	public int getBatchCount() {
+		return batchCount;
+	}
+
+	/**
+	 *
+	 * @return Returns the length of a batch in the last run, in simulation time
+	 */
+	public double getBatchLength() {
+		return batchSize * intervalLength;
+	}
+
+	/**
+	 *
+	 * @param measure	Index of a performance measure, in the order in which they are printed
+	 * @return Returns the lag-1 autocorrelation between the batches of the last run for this performance measure
+	 */
+	public double getAutocorrelation(int measure) {
+		return autocorrelations[measure];
+	}
+
+	public List<PerformanceMeasure<S>> getPerformanceMeasures() {
+		return new ArrayList<>(measures);
+	}
+
+	public void printEstimates() {
+		PrintWriter pw = new PrintWriter(System.out);
+		printEstimates(pw);
+		pw.flush();
+	}
+
+	public void printEstimates(PrintStream out) {
+		for (int i = 0; i < measures.size(); i++) {
+			out.println(measures.get(i));
+		}
+	}
+
+	public void printEstimates(PrintWriter out) {
+		for (int i = 0; i < measures.size(); i++) {
+			out.println(measures.get(i));
+		}
+	}
+}
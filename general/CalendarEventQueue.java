@@ -0,0 +1,296 @@
+package general;
+
+import java.util.Arrays;
+
+/**
+ * {@link EventQueue} implemented as a calendar queue (R. Brown, 1988). Time is divided into buckets of equal width,
+ * like the days of a calendar, and an event is stored in the bucket of its "day" modulo the number of buckets.
+ * Polling walks through the buckets starting at the day of the last polled event. When the bucket width is in
+ * the order of the average time between consecutive events, both {@link #add(Event)} and {@link #poll()} take
+ * constant time on average, regardless of the number of pending events.
+ *
+ * The queue resizes itself: it doubles the number of buckets when there are more than two events per bucket,
+ * halves it when there is less than one event per two buckets, and estimates a new bucket width from the
+ * events at the head of the queue at every resize. It performs best when the model keeps many pending events
+ * with fairly uniform inter-event times; for a handful of pending events a {@link HeapEventQueue} is just as fast.
+ *
+ * Within a bucket the events are kept in arrays sorted by decreasing time, so the next event of a bucket is
+ * always its last element. Events with exactly the same time are returned in the order in which they were added.
+ *
+ * @author Nemanja Milovanovic
+ *
+ * @param <S> A user-defined system state class.
+ */
+public class CalendarEventQueue<S extends SystemState<S>> implements EventQueue<S> {
+
+	private static final int MIN_BUCKETS = 2;
+	private static final int INITIAL_BUCKET_CAPACITY = 4;
+	private static final int SAMPLE_SIZE = 25;
+
+	private double[][] times;
+	private Event<?>[][] events;
+	private int[] counts;
+	// a bucket only holds events when its stamp equals the current generation, which lets clear() run in constant time
+	private int[] stamps;
+	private int generation;
+	private int mask;
+	private double width;
+	private double inverseWidth;
+	private int size;
+
+	/**
+	 * Day of the last event that was returned. No pending event lies on an earlier day.
+	 */
+	private long currentDay;
+
+	public CalendarEventQueue() {
+		this(1d);
+	}
+
+	/**
+	 * @param initialWidth	Initial bucket width, which is re-estimated every time the queue resizes
+	 */
+	public CalendarEventQueue(double initialWidth) {
+		if (!(initialWidth > 0) || Double.isInfinite(initialWidth)) {
+			throw new IllegalArgumentException("Bucket width must be positive and finite");
+		}
+		setWidth(initialWidth);
+		allocate(MIN_BUCKETS);
+		currentDay = Long.MAX_VALUE;
+	}
+
+	@Override
+	public void add(Event<S> e) {
+		if (e == null) {
+			throw new IllegalArgumentException("Event cannot be null.");
+		}
+		insert(e.getTime(), e);
+		size++;
+		if (size > 2 * counts.length) {
+			resize(2 * counts.length);
+		}
+	}
+
+	@Override
+	public Event<S> poll() {
+		if (size == 0) {
+			return null;
+		}
+		int b = nextBucket();
+		int last = --counts[b];
+		@SuppressWarnings("unchecked")
+		Event<S> result = (Event<S>) events[b][last];
+		events[b][last] = null;
+		size--;
+		if (size < counts.length / 2 && counts.length > MIN_BUCKETS) {
+			resize(counts.length / 2);
+		}
+		return result;
+	}
+
+	@Override
+	public Event<S> peek() {
+		if (size == 0) {
+			return null;
+		}
+		int b = nextBucket();
+		@SuppressWarnings("unchecked")
+		Event<S> result = (Event<S>) events[b][counts[b] - 1];
+		return result;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all events in constant time. The removed events stay referenced by the buckets until their slots
+	 * are reused.
+	 */
+	@Override
+	public void clear() {
+		size = 0;
+		currentDay = Long.MAX_VALUE;
+		generation++;
+		if (generation == 0) {
+			// stamps from before the overflow may look current again
+			Arrays.fill(counts, 0);
+			Arrays.fill(stamps, 0);
+		}
+	}
+
+	/**
+	 * @return Returns the current width of the buckets
+	 */
+	public double getBucketWidth() {
+		return width;
+	}
+
+	/**
+	 * @return Returns the current number of buckets
+	 */
+	public int getBucketCount() {
+		return counts.length;
+	}
+
+	private long day(double time) {
+		return (long) Math.floor(time * inverseWidth);
+	}
+
+	private void setWidth(double width) {
+		this.width = width;
+		this.inverseWidth = 1d / width;
+	}
+
+	private void allocate(int buckets) {
+		times = new double[buckets][];
+		events = new Event<?>[buckets][];
+		counts = new int[buckets];
+		stamps = new int[buckets];
+		Arrays.fill(stamps, generation);
+		mask = buckets - 1;
+	}
+	
+	private int count(int b) {
+		return stamps[b] == generation ? counts[b] : 0;
+	}
+
+	/**
+	 * Inserts an event into the bucket of its day, such that the bucket stays sorted by decreasing time and
+	 * later additions with the same time end up in front of earlier ones.
+	 */
+	private void insert(double time, Event<?> e) {
+		long day = day(time);
+		int b = (int) (day & mask);
+		if (stamps[b] != generation) {
+			stamps[b] = generation;
+			counts[b] = 0;
+		}
+		int count = counts[b];
+		double[] bucketTimes = times[b];
+		Event<?>[] bucketEvents = events[b];
+		if (bucketTimes == null) {
+			bucketTimes = times[b] = new double[INITIAL_BUCKET_CAPACITY];
+			bucketEvents = events[b] = new Event<?>[INITIAL_BUCKET_CAPACITY];
+		}
+		else if (count == bucketTimes.length) {
+			bucketTimes = times[b] = Arrays.copyOf(bucketTimes, 2 * count);
+			bucketEvents = events[b] = Arrays.copyOf(bucketEvents, 2 * count);
+		}
+		int pos = 0;
+		while (pos < count && bucketTimes[pos] > time) {
+			pos++;
+		}
+		System.arraycopy(bucketTimes, pos, bucketTimes, pos + 1, count - pos);
+		System.arraycopy(bucketEvents, pos, bucketEvents, pos + 1, count - pos);
+		bucketTimes[pos] = time;
+		bucketEvents[pos] = e;
+		counts[b] = count + 1;
+		if (day < currentDay) {
+			currentDay = day;
+		}
+	}
+
+	/**
+	 * Finds the bucket that holds the next event, starting at the current day and walking through the calendar
+	 * for at most one year. When no event falls within that year, the minimum is searched directly.
+	 * Assumes the queue is not empty.
+	 */
+	private int nextBucket() {
+		long day = currentDay;
+		for (int i = 0; i < counts.length; i++, day++) {
+			int b = (int) (day & mask);
+			int count = count(b);
+			if (count > 0 && day(times[b][count - 1]) <= day) {
+				currentDay = day;
+				return b;
+			}
+		}
+		int best = -1;
+		double bestTime = Double.POSITIVE_INFINITY;
+		for (int b = 0; b < counts.length; b++) {
+			int count = count(b);
+			if (count > 0 && (best < 0 || times[b][count - 1] < bestTime)) {
+				best = b;
+				bestTime = times[b][count - 1];
+			}
+		}
+		currentDay = day(bestTime);
+		return best;
+	}
+
+	/**
+	 * Re-estimates the bucket width and redistributes all events over <code>buckets</code> buckets.
+	 */
+	private void resize(int buckets) {
+		double newWidth = estimateWidth();
+		double[][] oldTimes = times;
+		Event<?>[][] oldEvents = events;
+		int[] oldCounts = counts;
+		int[] oldStamps = stamps;
+
+		setWidth(newWidth);
+		allocate(buckets);
+		currentDay = Long.MAX_VALUE;
+		for (int b = 0; b < oldCounts.length; b++) {
+			int count = oldStamps[b] == generation ? oldCounts[b] : 0;
+			// insert from the back, so events with equal times keep their order
+			for (int i = count - 1; i >= 0; i--) {
+				insert(oldTimes[b][i], oldEvents[b][i]);
+			}
+		}
+	}
+
+	/**
+	 * Estimates a good bucket width as three times the average separation between the first events in the queue,
+	 * ignoring separations that are more than twice as large as the average.
+	 */
+	private double estimateWidth() {
+		int n = Math.min(size, SAMPLE_SIZE);
+		if (n < 2) {
+			return width;
+		}
+		// take the first events out of the queue, remember their times, and put them back
+		double[] sample = new double[n];
+		Event<?>[] sampled = new Event<?>[n];
+		for (int i = 0; i < n; i++) {
+			int b = nextBucket();
+			int last = --counts[b];
+			sample[i] = times[b][last];
+			sampled[i] = events[b][last];
+			events[b][last] = null;
+		}
+		for (int i = 0; i < n; i++) {
+			insert(sample[i], sampled[i]);
+		}
+
+		double total = 0;
+		int separations = 0;
+		for (int i = 1; i < n; i++) {
+			double separation = sample[i] - sample[i - 1];
+			if (Double.isFinite(separation)) {
+				total += separation;
+				separations++;
+			}
+		}
+		if (separations == 0 || total <= 0) {
+			return width;
+		}
+		double average = total / separations;
+		total = 0;
+		separations = 0;
+		for (int i = 1; i < n; i++) {
+			double separation = sample[i] - sample[i - 1];
+			if (Double.isFinite(separation) && separation <= 2 * average) {
+				total += separation;
+				separations++;
+			}
+		}
+		double estimate = 3 * total / separations;
+		if (!(estimate > 0) || Double.isInfinite(estimate)) {
+			return width;
+		}
+		return estimate;
+	}
+}
@@ -0,0 +1,426 @@
+package general;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link ReplicationSink} that writes the values of the performance measures of every replication to a binary file
+ * with one column per measure, through memory-mapped buffers. The values do not take up heap space, and a run of tens of
+ * millions of replications can be kept for analysis afterwards; {@link #open(Path)} maps the columns back.
+ *
+ * The file starts with a header that holds the names of the measures, the seed of the system state, whether the values
+ * are averages over antithetic pairs, the largest number of replications of the run, the number of replications the
+ * estimates are based on and the number of replications per chunk. The values follow in chunks of usually 2^20
+ * replications, as little-endian doubles: a chunk holds a column per measure, and the value of replication
+ * <code>i</code> is at the same index in every column. Replications can therefore be written in any order and from any
+ * thread without locking. A chunk is only mapped, and the file only grown, once a replication of the chunk arrives, so
+ * a run that stops early at its precision target takes the space of the replications it ran, not of its maximum.
+ *
+ * When a run is resumed from a checkpoint, the store opens the existing file and keeps the values that were written
+ * before, so the file again holds all replications.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class ColumnarStore implements ReplicationSink {
+
+	private static final long MAGIC = 0x3230_4C4F_434D_4953L; // "SIMCOL02"
+	private static final int COUNT_OFFSET = 32;
+	// replications per chunk, unless a chunk of all measures does not fit in one mapped buffer
+	private static final int CHUNK_BITS = 20;
+
+	private final Path file;
+	private FileChannel channel;
+	private Header header;
+	// grown by copying, so accept only locks to map a new chunk
+	private volatile Chunk[] chunks;
+
+	/**
+	 * @param file	File to write to; it is replaced by every run that does not resume from a checkpoint
+	 */
+	public ColumnarStore(Path file) {
+		this.file = file;
+	}
+
+	@Override
+	public void start(List<String> measures, long seed, boolean antithetic, long from, long replications) {
+		Header header = new Header(measures, seed, antithetic, replications);
+		try {
+			if (from == 0) {
+				channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+						StandardOpenOption.READ, StandardOpenOption.WRITE);
+				header.write(channel);
+			}
+			else {
+				channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				Header existing = Header.read(channel);
+				if (!existing.measures.equals(header.measures) || existing.seed != seed
+						|| existing.antithetic != antithetic || existing.capacity != replications) {
+					channel.close();
+					throw new IllegalStateException(file + " was written by a different run and can not be continued");
+				}
+				header = existing;
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Could not open " + file, ex);
+		}
+		this.header = header;
+		chunks = new Chunk[0];
+	}
+
+	@Override
+	public void accept(long replication, long seed, Status status, long nanos, double[] values) {
+		long c = replication >>> header.bits;
+		Chunk[] current = chunks;
+		Chunk chunk = c < current.length ? current[(int) c] : null;
+		if (chunk == null) {
+			chunk = map(c);
+		}
+		int index = (int) (replication & header.mask());
+		for (int j = 0; j < values.length; j++) {
+			chunk.columns[j].put(index, values[j]);
+		}
+	}
+
+	/**
+	 * Maps chunk number <code>c</code>, which grows the file if the chunk lies beyond its end.
+	 */
+	private synchronized Chunk map(long c) {
+		Chunk[] current = chunks;
+		if (c >= current.length) {
+			if (c >= Integer.MAX_VALUE - 8) {
+				throw new IllegalStateException("Replication " + (c << header.bits) + " does not fit in " + file);
+			}
+			current = Arrays.copyOf(current, (int) Math.max(c + 1, Math.min(2L * current.length, Integer.MAX_VALUE - 8)));
+		}
+		if (current[(int) c] == null) {
+			try {
+				MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, header.offset(0, c << header.bits), header.chunkBytes());
+				current[(int) c] = new Chunk(buffer, header.measures.size(), header.chunkSize());
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Could not write " + file, ex);
+			}
+			// publishes the new chunk to the threads that read the array without locking
+			chunks = current;
+		}
+		return current[(int) c];
+	}
+
+	@Override
+	public void finish(long replications) {
+		try {
+			// force of the channel does not cover the mapped buffers, and the values must be on disk before the count is
+			for (Chunk chunk : chunks) {
+				if (chunk != null) {
+					chunk.buffer.force();
+				}
+			}
+			ByteBuffer count = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			count.putLong(0, replications);
+			channel.write(count, COUNT_OFFSET);
+			channel.force(true);
+			channel.close();
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Could not write " + file, ex);
+		} finally {
+			chunks = null;
+			header = null;
+			channel = null;
+		}
+	}
+
+	/**
+	 * Opens a file written by a store for reading.
+	 *
+	 * @param file	File written by a <code>ColumnarStore</code>
+	 * @return Returns a reader of the file, which should be closed after use
+	 */
+	public static Reader open(Path file) {
+		try {
+			return new Reader(file);
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Could not read " + file, ex);
+		}
+	}
+
+	/**
+	 * Reads the columns of a file written by a {@link ColumnarStore}.
+	 */
+	public static final class Reader implements AutoCloseable {
+
+		private final FileChannel channel;
+		private final Header header;
+
+		private Reader(Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				header = Header.read(channel);
+			} catch (IOException | RuntimeException ex) {
+				channel.close();
+				throw ex;
+			}
+		}
+
+		/**
+		 *
+		 * @return Returns the names of the performance measures, in the order of the columns
+		 */
+		public List<String> getMeasures() {
+			return header.measures;
+		}
+
+		/**
+		 *
+		 * @return Returns the seed of the system state of the run
+		 */
+		public long getSeed() {
+			return header.seed;
+		}
+
+		/**
+		 *
+		 * @return Returns true if the values are averages over antithetic pairs of replications
+		 */
+		public boolean isAntithetic() {
+			return header.antithetic;
+		}
+
+		/**
+		 *
+		 * @return Returns the number of replications the estimates of the run are based on, or 0 if the run did not finish
+		 */
+		public long getReplications() {
+			return header.count;
+		}
+
+		/**
+		 * @param measure	Name of a performance measure
+		 * @return Returns the index of the column of the measure
+		 */
+		public int indexOf(String measure) {
+			int j = header.measures.indexOf(measure);
+			if (j < 0) {
+				throw new IllegalArgumentException("The file has no performance measure named '" + measure + "'");
+			}
+			return j;
+		}
+
+		/**
+		 * @param measure	Index of a performance measure
+		 * @return Returns the values of the measure in all replications the estimates are based on
+		 */
+		public DoubleBuffer getColumn(int measure) {
+			if (header.count > Integer.MAX_VALUE / Double.BYTES) {
+				throw new IllegalStateException("The column is too long for one buffer; read it in parts");
+			}
+			return getColumn(measure, 0, (int) header.count);
+		}
+
+		/**
+		 * @param measure	Index of a performance measure
+		 * @param from		Index of the first replication
+		 * @param length	Number of replications, at most <code>2^28 - 1</code>
+		 * @return Returns the values of the measure in the replications, mapped from the file if they lie in one chunk and
+		 * 			copied otherwise; replications that were never written are 0
+		 */
+		public DoubleBuffer getColumn(int measure, long from, int length) {
+			if (measure < 0 || measure >= header.measures.size()) {
+				throw new IndexOutOfBoundsException("No column " + measure);
+			}
+			if (from < 0 || length < 0 || from > header.capacity - length || length > Integer.MAX_VALUE / Double.BYTES) {
+				throw new IndexOutOfBoundsException("Replications " + from + " to " + (from + length) + " are not in the file");
+			}
+			try {
+				long size = channel.size();
+				long offset = header.offset(measure, from);
+				if ((from & header.mask()) + length <= header.chunkSize() && offset + (long) length * Double.BYTES <= size) {
+					return map(offset, length);
+				}
+				DoubleBuffer values = DoubleBuffer.allocate(length);
+				long end = from + length;
+				for (long i = from; i < end; ) {
+					int count = (int) Math.min(header.chunkSize() - (i & header.mask()), end - i);
+					offset = header.offset(measure, i);
+					// chunks beyond the end of the file were never written
+					int written = (int) Math.max(0, Math.min(count, (size - offset) / Double.BYTES));
+					if (written > 0) {
+						values.position((int) (i - from));
+						values.put(map(offset, written));
+					}
+					i += count;
+				}
+				values.clear();
+				return values;
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+
+		private DoubleBuffer map(long offset, int length) throws IOException {
+			MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, offset, (long) length * Double.BYTES);
+			return buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		}
+
+		@Override
+		public void close() {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+
+	/**
+	 * The columns of one chunk, views of a single mapped buffer.
+	 */
+	private static final class Chunk {
+
+		private final MappedByteBuffer buffer;
+		private final DoubleBuffer[] columns;
+
+		Chunk(MappedByteBuffer buffer, int k, int size) {
+			this.buffer = buffer;
+			columns = new DoubleBuffer[k];
+			for (int j = 0; j < k; j++) {
+				buffer.limit((j + 1) * size * Double.BYTES).position(j * size * Double.BYTES);
+				columns[j] = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * The header of a file: the magic number, the length of the header, the number of measures, the seed, the capacity, the
+	 * number of replications, the antithetic flag, the number of bits of the replications per chunk and the names of the
+	 * measures, padded to a multiple of 8 bytes.
+	 */
+	private static final class Header {
+
+		private final List<String> measures;
+		private final long seed;
+		private final boolean antithetic;
+		private final long capacity;
+		private final long count;
+		private final int bits;
+		private final int length;
+
+		Header(List<String> measures, long seed, boolean antithetic, long capacity) {
+			this(measures, seed, antithetic, capacity, 0, bits(measures.size()), length(measures));
+		}
+
+		private Header(List<String> measures, long seed, boolean antithetic, long capacity, long count, int bits, int length) {
+			this.measures = Collections.unmodifiableList(new ArrayList<>(measures));
+			this.seed = seed;
+			this.antithetic = antithetic;
+			this.capacity = capacity;
+			this.count = count;
+			this.bits = bits;
+			this.length = length;
+		}
+
+		private static int bits(int k) {
+			int bits = CHUNK_BITS;
+			// a chunk is mapped as one buffer, which holds less than 2 GB
+			while (bits > 0 && ((long) k << (bits + 3)) > Integer.MAX_VALUE) {
+				bits--;
+			}
+			return bits;
+		}
+
+		private static int length(List<String> measures) {
+			int length = 48;
+			for (String name : measures) {
+				length += Integer.BYTES + name.getBytes(StandardCharsets.UTF_8).length;
+			}
+			return (length + 7) & ~7;
+		}
+
+		int chunkSize() {
+			return 1 << bits;
+		}
+
+		long mask() {
+			return chunkSize() - 1;
+		}
+
+		long chunkBytes() {
+			return (long) measures.size() * chunkSize() * Double.BYTES;
+		}
+
+		/**
+		 * @return Returns the position in the file of the value of measure <code>j</code> in replication <code>i</code>
+		 */
+		long offset(int j, long i) {
+			// the position of a chunk far beyond any real run must not wrap around
+			long chunk = Math.addExact(length, Math.multiplyExact(i >>> bits, chunkBytes()));
+			return chunk + ((long) j * chunkSize() + (i & mask())) * Double.BYTES;
+		}
+
+		void write(FileChannel channel) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putLong(MAGIC);
+			buffer.putInt(length);
+			buffer.putInt(measures.size());
+			buffer.putLong(seed);
+			buffer.putLong(capacity);
+			buffer.putLong(count);
+			buffer.putInt(antithetic ? 1 : 0);
+			buffer.putInt(bits);
+			for (String name : measures) {
+				byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+				buffer.putInt(bytes.length);
+				buffer.put(bytes);
+			}
+			buffer.rewind();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer, buffer.position());
+			}
+		}
+
+		static Header read(FileChannel channel) throws IOException {
+			ByteBuffer fixed = readFully(channel, 0, 16);
+			if (fixed.getLong() != MAGIC) {
+				throw new IllegalStateException("Not a file of a ColumnarStore");
+			}
+			int length = fixed.getInt();
+			int k = fixed.getInt();
+			ByteBuffer buffer = readFully(channel, 16, length - 16);
+			long seed = buffer.getLong();
+			long capacity = buffer.getLong();
+			long count = buffer.getLong();
+			boolean antithetic = buffer.getInt() != 0;
+			int bits = buffer.getInt();
+			List<String> measures = new ArrayList<>();
+			for (int j = 0; j < k; j++) {
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				measures.add(new String(bytes, StandardCharsets.UTF_8));
+			}
+			return new Header(measures, seed, antithetic, capacity, count, bits, length);
+		}
+		private static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					throw new IllegalStateException("The file ends within its header");
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+}
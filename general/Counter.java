@@ -5,30 +5,45 @@ package general;
  * 
  * As it is the most prevalent, this class models an accumulating statistical counter. 
  * 
+ * The value of a counter is stored in a {@link CounterBank} once the counter belongs to a {@link SystemState}, 
+ * so the counter itself is only a view into the bank. Until then it stores its value by itself.
+ * 
  * @author Nemanja Milovanovic
  *
  */
 public class Counter {
 
 	private double initialValue;
-	private double accumSum;
+	private double[] values;
+	private int index;
+	private CounterBank bank;
 	private String name;
 	
 	public Counter(
 			double initialValue, 
 			String name) {
 		this.initialValue = initialValue;
-		accumSum = initialValue;
+		values = new double[] {initialValue};
+		index = 0;
 		this.name = name;
 	}
 	
+	/**
+	 * Called by {@link CounterBank} when the counter is adopted, or when the bank has grown.
+	 */
+	void bind(CounterBank bank, double[] values, int index) {
+		this.bank = bank;
+		this.values = values;
+		this.index = index;
+	}
+	
 	/**
 	 * Increment the accumulated sum by <code>x</code>
 	 * 
 	 * @param x Value to add
 	 */
 	public void incrementBy(double x) {
-		accumSum += x;
+		values[index] += x;
 	}
 	
 	/**
@@ -43,19 +58,44 @@ public class Counter {
 	 * @return Returns the current value of the accumulated sum
 	 */
 	public double getValue() {
-		return accumSum;
+		return values[index];
+	}
+	
+	/**
+	 * 
+	 * @return Returns the value of the counter after a reset
+	 */
+	public double getInitialValue() {
+		return initialValue;
+	}
+	
+	/**
+	 * 
+	 * @return Returns the name of the counter
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * 
+	 * @return Returns the bank that stores the value of this counter, or <code>null</code> if the counter 
+	 * does not belong to a bank yet
+	 */
+	public CounterBank getBank() {
+		return bank;
 	}
 	
 	/**
-	 * Resets the counter to its initial value.
+	 * Resets the counter to its initial value. To reset all counters of a state at once, use {@link CounterBank#reset()}.
 	 */
 	public void reset() {
-		accumSum = initialValue;
+		values[index] = initialValue;
 	}
 	
 	@Override
 	public String toString() {
-		return "[" + name + ": " + accumSum + "]";
+		return "[" + name + ": " + getValue() + "]";
 	}
 
 	@Override
@@ -63,7 +103,7 @@ public class Counter {
 		final int prime = 31;
 		int result = 1;
 		long temp;
-		temp = Double.doubleToLongBits(accumSum);
+		temp = Double.doubleToLongBits(getValue());
 		result = prime * result + (int) (temp ^ (temp >>> 32));
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
 		return result;
@@ -78,7 +118,7 @@ public class Counter {
 		if (!(obj instanceof Counter))
 			return false;
 		Counter other = (Counter) obj;
-		if (Double.doubleToLongBits(accumSum) != Double.doubleToLongBits(other.accumSum))
+		if (Double.doubleToLongBits(getValue()) != Double.doubleToLongBits(other.getValue()))
 			return false;
 		if (name == null) {
 			if (other.name != null)
@@ -0,0 +1,145 @@
+package general;
+
+import java.util.Arrays;
+
+/**
+ * Stores the values of all {@link Counter} objects of one system state next to each other in a single
+ * <code>double[]</code>. The counters themselves remain the objects the model works with, but they are views
+ * into this bank. Resetting all counters is one {@link System#arraycopy(Object, int, Object, int, int)} from the
+ * initial values, and the values of all counters can be copied out in one go with {@link #snapshot(double[])}.
+ *
+ * Each {@link SystemState} owns a bank, which adopts the counters of the state when it is constructed.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class CounterBank {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private double[] values;
+	private double[] initialValues;
+	private Counter[] counters;
+	private int size;
+
+	public CounterBank() {
+		values = new double[DEFAULT_CAPACITY];
+		initialValues = new double[DEFAULT_CAPACITY];
+		counters = new Counter[DEFAULT_CAPACITY];
+	}
+
+	/**
+	 * Moves a counter into this bank. The counter keeps its current value, and from now on reads and writes
+	 * the slot with index {@link #size()} of this bank.
+	 *
+	 * @param c	Counter to adopt
+	 * @return Returns the index of the counter in this bank
+	 */
+	public int add(Counter c) {
+		if (c == null) {
+			throw new IllegalArgumentException("Counter cannot be null.");
+		}
+		if (c.getBank() != null) {
+			throw new IllegalArgumentException("Counter "+c+" already belongs to a CounterBank, and can not be shared between system states.");
+		}
+		if (size == values.length) {
+			int capacity = values.length * 2;
+			values = Arrays.copyOf(values, capacity);
+			initialValues = Arrays.copyOf(initialValues, capacity);
+			counters = Arrays.copyOf(counters, capacity);
+			for (int i = 0; i < size; i++) {
+				counters[i].bind(this, values, i);
+			}
+		}
+		int index = size++;
+		values[index] = c.getValue();
+		initialValues[index] = c.getInitialValue();
+		counters[index] = c;
+		c.bind(this, values, index);
+		return index;
+	}
+
+	/**
+	 *
+	 * @return Returns the number of counters in this bank
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @param index	Index of a counter
+	 * @return Returns the counter with the given index
+	 */
+	public Counter getCounter(int index) {
+		checkIndex(index);
+		return counters[index];
+	}
+
+	/**
+	 *
+	 * @param index	Index of a counter
+	 * @return Returns the current value of the counter with the given index
+	 */
+	public double getValue(int index) {
+		checkIndex(index);
+		return values[index];
+	}
+
+	/**
+	 * Resets all counters to their initial values.
+	 */
+	public void reset() {
+		System.arraycopy(initialValues, 0, values, 0, size);
+	}
+
+	/**
+	 * Copies the current values of all counters, ordered by index.
+	 *
+	 * @param dest	Array to copy the values into, of length at least {@link #size()}
+	 * @return Returns <code>dest</code>
+	 */
+	public double[] snapshot(double[] dest) {
+		if (dest.length < size) {
+			throw new IllegalArgumentException("Array of length "+dest.length+" can not hold the values of "+size+" counters.");
+		}
+		System.arraycopy(values, 0, dest, 0, size);
+		return dest;
+	}
+
+	/**
+	 *
+	 * @return Returns a new array with the current values of all counters, ordered by index
+	 */
+	public double[] snapshot() {
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Overwrites the values of all counters, for example with an earlier {@link #snapshot()}.
+	 *
+	 * @param source	Values of the counters, ordered by index
+	 */
+	public void load(double[] source) {
+		if (source.length < size) {
+			throw new IllegalArgumentException("Array of length "+source.length+" does not hold the values of "+size+" counters.");
+		}
+		System.arraycopy(source, 0, values, 0, size);
+	}
+
+	/**
+	 * Copies the initial values of all counters, ordered by index.
+	 *
+	 * @return Returns a new array with the initial values
+	 */
+	public double[] getInitialValues() {
+		return Arrays.copyOf(initialValues, size);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index "+index+" is not in [0, "+size+")");
+		}
+	}
+}
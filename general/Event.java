@@ -24,6 +24,16 @@ public abstract class Event<S extends SystemState<S>> implements Comparable<Even
 		return time;
 	}
 	
+	/**
+	 * Changes the time of this event. This is meant for events that are recycled, and must never be called 
+	 * while the event is in the event queue.
+	 * 
+	 * @param time	The new time of this event
+	 */
+	protected void setTime(double time) {
+		this.time = time;
+	}
+	
 	@Override
 	public int compareTo(Event<S> other) {
 		int res = Double.compare(time, other.time);
@@ -36,6 +46,14 @@ public abstract class Event<S extends SystemState<S>> implements Comparable<Even
 	 * @param state	System state
 	 */
 	public abstract void process(S state);
+	
+	/**
+	 * Called by {@link Replication#run()} after the event has been processed and the simulation clock has been updated. 
+	 * Events that are recycled return themselves to their pool here. The default implementation does nothing.
+	 */
+	public void release() {
+		
+	}
 
 	@Override
 	public int hashCode() {
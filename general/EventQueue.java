@@ -0,0 +1,55 @@
+package general;
+
+/**
+ * The pending event list of a Discrete-Event Simulation (DES). {@link Replication#run()} repeatedly polls the event with
+ * the smallest time from this queue, so implementations should make {@link #add(Event)} and {@link #poll()} as cheap as possible.
+ * Events with exactly the same time may be returned in any order.
+ *
+ * The default implementation is {@link HeapEventQueue}. A different implementation can be passed to the constructor
+ * of {@link SystemState}.
+ *
+ * @author Nemanja Milovanovic
+ *
+ * @param <S> A user-defined system state class.
+ */
+public interface EventQueue<S extends SystemState<S>> {
+
+	/**
+	 * Adds an event to the queue.
+	 *
+	 * @param e	Event to add
+	 */
+	void add(Event<S> e);
+
+	/**
+	 * Removes the event with the smallest time from the queue.
+	 *
+	 * @return	Returns the event with the smallest time, or <code>null</code> if the queue is empty
+	 */
+	Event<S> poll();
+
+	/**
+	 *
+	 * @return	Returns the event with the smallest time without removing it, or <code>null</code> if the queue is empty
+	 */
+	Event<S> peek();
+
+	/**
+	 *
+	 * @return	Returns the number of events in the queue
+	 */
+	int size();
+
+	/**
+	 *
+	 * @return	Returns true if the queue contains no events, false otherwise
+	 */
+	default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Removes all events from the queue.
+	 */
+	void clear();
+}
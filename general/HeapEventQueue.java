@@ -0,0 +1,143 @@
+package general;
+
+import java.util.Arrays;
+
+/**
+ * {@link EventQueue} implemented as a 4-ary min-heap. The event times are stored in a <code>double[]</code> next to
+ * a parallel array of events, so sifting through the heap compares primitive doubles that lie next to each other
+ * in memory, instead of calling {@link Event#compareTo(Event)} on objects scattered over the heap.
+ * A 4-ary heap is about half as deep as a binary heap, and the four children of a node share a cache line.
+ *
+ * @author Nemanja Milovanovic
+ *
+ * @param <S> A user-defined system state class.
+ */
+public class HeapEventQueue<S extends SystemState<S>> implements EventQueue<S> {
+
+	private static final int ARITY = 4;
+	private static final int DEFAULT_CAPACITY = 64;
+
+	private double[] times;
+	private Event<?>[] events;
+	private int size;
+
+	public HeapEventQueue() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity	Number of events the queue can hold before it has to grow
+	 */
+	public HeapEventQueue(int initialCapacity) {
+		if (initialCapacity < 1) {
+			throw new IllegalArgumentException("Initial capacity must be >= 1");
+		}
+		times = new double[initialCapacity];
+		events = new Event<?>[initialCapacity];
+	}
+
+	@Override
+	public void add(Event<S> e) {
+		if (e == null) {
+			throw new IllegalArgumentException("Event cannot be null.");
+		}
+		if (size == times.length) {
+			int capacity = times.length * 2;
+			times = Arrays.copyOf(times, capacity);
+			events = Arrays.copyOf(events, capacity);
+		}
+		siftUp(size, e.getTime(), e);
+		size++;
+	}
+
+	@Override
+	public Event<S> poll() {
+		if (size == 0) {
+			return null;
+		}
+		Event<S> result = event(0);
+		size--;
+		Event<?> last = events[size];
+		events[size] = null;
+		if (size > 0) {
+			siftDown(0, times[size], last);
+		}
+		return result;
+	}
+
+	@Override
+	public Event<S> peek() {
+		if (size == 0) {
+			return null;
+		}
+		return event(0);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all events in constant time. The removed events stay referenced by the internal array until their 
+	 * slots are reused.
+	 */
+	@Override
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Moves the hole at index <code>i</code> up until <code>time</code> is no longer smaller than the time of its parent,
+	 * and puts the event there.
+	 */
+	private void siftUp(int i, double time, Event<?> e) {
+		while (i > 0) {
+			int parent = (i - 1) / ARITY;
+			double parentTime = times[parent];
+			if (parentTime <= time) {
+				break;
+			}
+			times[i] = parentTime;
+			events[i] = events[parent];
+			i = parent;
+		}
+		times[i] = time;
+		events[i] = e;
+	}
+
+	/**
+	 * Moves the hole at index <code>i</code> down until none of its children has a time smaller than <code>time</code>,
+	 * and puts the event there.
+	 */
+	private void siftDown(int i, double time, Event<?> e) {
+		while (true) {
+			int first = ARITY * i + 1;
+			if (first >= size) {
+				break;
+			}
+			int last = Math.min(first + ARITY, size);
+			int min = first;
+			double minTime = times[first];
+			for (int c = first + 1; c < last; c++) {
+				if (times[c] < minTime) {
+					min = c;
+					minTime = times[c];
+				}
+			}
+			if (time <= minTime) {
+				break;
+			}
+			times[i] = minTime;
+			events[i] = events[min];
+			i = min;
+		}
+		times[i] = time;
+		events[i] = e;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Event<S> event(int i) {
+		return (Event<S>) events[i];
+	}
+}
@@ -0,0 +1,237 @@
+package general;
+
+import java.util.Arrays;
+
+/**
+ * This class models a statistical counter that also keeps the distribution of the values it is incremented with, such as
+ * waiting times, in a histogram with fixed memory. Percentiles of the values can then be computed without storing them.
+ *
+ * The histogram is log-linear, in the style of HdrHistogram: every power of two between the lowest and the highest
+ * value is divided into <code>2^precisionBits</code> buckets of equal width. The bucket of a value is computed in constant time from
+ * the exponent and the leading bits of the mantissa of the double, and a value is reported as the midpoint of its bucket,
+ * so the relative error of a percentile is at most <code>2^-(precisionBits+1)</code>. Values below the lowest value are
+ * counted as 0, values above the highest value as the highest value. Recording a value does not allocate.
+ *
+ * Values are added with {@link #record(double)}, which adds them to the histogram and, like an accumulating
+ * {@link Counter}, to the value of the counter. {@link #incrementBy(double)} and {@link #increment()} keep their meaning
+ * for every counter and only change the value, also by a negative amount; the histogram, the count and the mean only
+ * cover the recorded values. A histogram counter can be managed with an {@link general.annotations.AutoCounter} annotation, and is reset by
+ * {@link Replication#reset()}. Percentiles can be reported through an {@link general.annotations.AutoMeasure} method, for example
+ * <pre>
+ * 	&#64;AutoMeasure("95th percentile of the waiting time")
+ * 	public double getWaitingTimeP95() {
+ * 		return waitingTime.getQuantile(0.95);
+ * 	}
+ * </pre>
+ * Note that the histogram is never truncated: a {@link WarmupDetector} only resets the value of the counter, and a
+ * {@link BatchMeansSimulation} only uses the increase of the value in a batch, so percentiles always cover the whole run.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class HistogramCounter extends Counter {
+
+	/**
+	 * Lowest value that is distinguished from 0 by the histograms of {@link general.annotations.AutoCounter} fields.
+	 */
+	public static final double DEFAULT_LOWEST = 1e-6;
+
+	/**
+	 * Highest value that is recorded exactly by the histograms of {@link general.annotations.AutoCounter} fields.
+	 */
+	public static final double DEFAULT_HIGHEST = 1e9;
+
+	/**
+	 * Number of bits of the mantissa that determine the bucket of a value in the histograms of {@link general.annotations.AutoCounter} fields.
+	 */
+	public static final int DEFAULT_PRECISION_BITS = 7;
+
+	private static final long MANTISSA_MASK = (1L << 52) - 1;
+
+	private final int precisionBits;
+	private final int minExponent;
+	private final double lowest;
+	private final double highest;
+	private final long[] buckets;
+	private long zeros;
+	private long count;
+	private double sum;
+	private double min;
+	private double max;
+	private int lowestUsed;
+	private int highestUsed;
+
+	public HistogramCounter(
+			double initialValue,
+			String name) {
+		this(initialValue, name, DEFAULT_LOWEST, DEFAULT_HIGHEST, DEFAULT_PRECISION_BITS);
+	}
+
+	/**
+	 * @param initialValue	Initial value of the sum
+	 * @param name			Name of the counter
+	 * @param lowest		Lowest value that is distinguished from 0, must be positive
+	 * @param highest		Highest value that is recorded without clamping
+	 * @param precisionBits	Number of bits of the mantissa that determine the bucket of a value, between 1 and 16
+	 */
+	public HistogramCounter(
+			double initialValue,
+			String name,
+			double lowest,
+			double highest,
+			int precisionBits) {
+		super(initialValue, name);
+		if (!(lowest >= Double.MIN_NORMAL && highest > lowest && highest <= Double.MAX_VALUE)) {
+			throw new IllegalArgumentException("Lowest value must be positive and smaller than the highest value");
+		}
+		if (precisionBits < 1 || precisionBits > 16) {
+			throw new IllegalArgumentException("Precision must be between 1 and 16 bits");
+		}
+		this.precisionBits = precisionBits;
+		this.lowest = lowest;
+		this.highest = highest;
+		minExponent = Math.getExponent(lowest);
+		int exponents = Math.getExponent(highest) - minExponent + 1;
+		buckets = new long[exponents << precisionBits];
+		clear();
+	}
+
+	/**
+	 * Adds a value to the sum and to the histogram.
+	 *
+	 * @param x	Value to record, not negative
+	 */
+	public void record(double x) {
+		if (!(x >= 0)) {
+			throw new IllegalArgumentException("A histogram counter can only record values >= 0, but got " + x);
+		}
+		super.incrementBy(x);
+		sum += x;
+		count++;
+		if (x < min) {
+			min = x;
+		}
+		if (x > max) {
+			max = x;
+		}
+		if (x < lowest) {
+			zeros++;
+			return;
+		}
+		int i = bucket(Math.min(x, highest));
+		buckets[i]++;
+		if (i < lowestUsed) {
+			lowestUsed = i;
+		}
+		if (i > highestUsed) {
+			highestUsed = i;
+		}
+	}
+
+	private int bucket(double x) {
+		long mantissa = Double.doubleToRawLongBits(x) & MANTISSA_MASK;
+		return ((Math.getExponent(x) - minExponent) << precisionBits) | (int) (mantissa >>> (52 - precisionBits));
+	}
+
+	/**
+	 * @return Returns the midpoint of bucket <code>i</code>
+	 */
+	private double value(int i) {
+		int exponent = (i >>> precisionBits) + minExponent;
+		int sub = i & ((1 << precisionBits) - 1);
+		return Math.scalb(1 + (sub + 0.5) / (1 << precisionBits), exponent);
+	}
+
+	/**
+	 * Computes a quantile of the recorded values. The smallest and largest value are returned exactly.
+	 *
+	 * @param q	Probability between 0 and 1
+	 * @return Returns the smallest recorded value such that at least a fraction <code>q</code> of the values is not larger,
+	 * 			up to the precision of the histogram, or <code>NaN</code> if no values were recorded
+	 */
+	public double getQuantile(double q) {
+		if (!(q >= 0 && q <= 1)) {
+			throw new IllegalArgumentException("Probability must be between 0 and 1");
+		}
+		if (count == 0) {
+			return Double.NaN;
+		}
+		long rank = Math.max(1, (long) Math.ceil(q * count));
+		if (rank == 1) {
+			return min;
+		}
+		if (rank == count) {
+			return max;
+		}
+		long seen = zeros;
+		if (seen >= rank) {
+			return 0;
+		}
+		for (int i = lowestUsed; i <= highestUsed; i++) {
+			seen += buckets[i];
+			if (seen >= rank) {
+				return Math.max(min, Math.min(max, value(i)));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 *
+	 * @return Returns the number of recorded values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return Returns the mean of the recorded values, or <code>NaN</code> if no values were recorded
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 *
+	 * @return Returns the smallest recorded value, or <code>NaN</code> if no values were recorded
+	 */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/**
+	 *
+	 * @return Returns the largest recorded value, or <code>NaN</code> if no values were recorded
+	 */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	/**
+	 * Resets the sum and empties the histogram. Only the part of the histogram that was used is cleared.
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		clear();
+	}
+
+	private void clear() {
+		if (lowestUsed <= highestUsed) {
+			Arrays.fill(buckets, lowestUsed, highestUsed + 1, 0);
+		}
+		lowestUsed = buckets.length;
+		highestUsed = -1;
+		zeros = 0;
+		count = 0;
+		sum = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + getName() + ": " + getValue() + ", n " + count + ", median " + getQuantile(0.5) + "]";
+	}
+}
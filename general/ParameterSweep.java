@@ -0,0 +1,312 @@
+package general;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs the same model for a list of configurations, such as a grid of seat allocations, on one pool of threads.
+ *
+ * Every configuration gets its own {@link Simulation}, which holds its estimates after a run. Instead of running the
+ * simulations one after the other, the blocks of 32 replications of all configurations are handed out to the threads
+ * in one interleaved sequence: the first block of every configuration, then the second block of every configuration,
+ * and so on. All threads stay busy until the last block is done, also when some configurations take much longer than
+ * others, and all estimates progress at the same pace. Since the blocks of a simulation are merged in their own order,
+ * the estimates of every configuration are exactly those of running its simulation on its own with {@link Simulation#run(long)}.
+ *
+ * The replications of a configuration are kept in a pool and reused for its later blocks by whichever thread runs them,
+ * so a configuration never has more replications than there are threads. Options such as
+ * {@link Simulation#setAntithetic(boolean)} can be set on the simulations returned by {@link #getSimulation(int)}
+ * before the sweep is run.
+ *
+ * @author Nemanja Milovanovic
+ *
+ * @param <C> Type of a configuration
+ * @param <S> A user-defined system state class.
+ */
+public class ParameterSweep<C, S extends SystemState<S>> {
+
+	private final List<C> configurations;
+	private final List<Simulation<S>> simulations;
+	private Status status;
+
+	/**
+	 * @param configurations	Configurations to simulate
+	 * @param factory			Function that creates a new replication, with its own system state, for a configuration;
+	 * 							it is called at least once for every configuration, and once more for every additional
+	 * 							thread that runs the configuration
+	 */
+	public ParameterSweep(
+			List<? extends C> configurations,
+			Function<? super C, ? extends Replication<S>> factory) {
+		if (configurations.isEmpty()) {
+			throw new IllegalArgumentException("At least one configuration is needed");
+		}
+		this.configurations = Collections.unmodifiableList(new ArrayList<>(configurations));
+		simulations = new ArrayList<>();
+		for (C configuration : this.configurations) {
+			simulations.add(new Simulation<>(() -> factory.apply(configuration)));
+		}
+	}
+
+	/**
+	 * Runs <code>n</code> replications of every configuration, one configuration after the other.
+	 *
+	 * @param n	Number of replications per configuration
+	 */
+	public void run(long n) {
+		status = Status.ACTIVE;
+		for (Simulation<S> simulation : simulations) {
+			simulation.run(n);
+		}
+		status = Status.SUCCESS;
+	}
+
+	/**
+	 * Runs <code>n</code> replications of every configuration using <code>parallelism</code> worker threads.
+	 *
+	 * @param n				Number of replications per configuration
+	 * @param parallelism	Number of worker threads
+	 */
+	public void run(long n, int parallelism) {
+		checkParallelism(parallelism);
+		Simulation.withPool(parallelism, executor -> run(n, executor));
+	}
+
+	/**
+	 * Runs <code>n</code> replications of every configuration on the threads of <code>executor</code>.
+	 *
+	 * @param n			Number of replications per configuration
+	 * @param executor	Executor that runs the replications, it is not shut down afterwards
+	 */
+	public void run(long n, ExecutorService executor) {
+		run(n, null, executor);
+	}
+
+	/**
+	 * Runs replications of every configuration until its estimates reach <code>target</code>, or until
+	 * <code>maxReplications</code> replications have been run, see {@link Simulation#run(PrecisionTarget, long)}.
+	 * Threads move on to the configurations that still need replications.
+	 *
+	 * @param target			Precision of the estimates
+	 * @param maxReplications	Largest number of replications per configuration
+	 * @param parallelism		Number of worker threads
+	 */
+	public void run(PrecisionTarget target, long maxReplications, int parallelism) {
+		checkParallelism(parallelism);
+		Simulation.withPool(parallelism, executor -> run(target, maxReplications, executor));
+	}
+
+	/**
+	 * Like {@link #run(PrecisionTarget, long, int)}, but runs the replications on the threads of <code>executor</code>.
+	 *
+	 * @param target			Precision of the estimates
+	 * @param maxReplications	Largest number of replications per configuration
+	 * @param executor			Executor that runs the replications, it is not shut down afterwards
+	 */
+	public void run(PrecisionTarget target, long maxReplications, ExecutorService executor) {
+		if (target == null) {
+			status = Status.FAILED;
+			throw new IllegalArgumentException("Precision target cannot be null.");
+		}
+		run(maxReplications, target, executor);
+	}
+
+	private void run(long n, PrecisionTarget target, ExecutorService executor) {
+		status = Status.ACTIVE;
+		int k = simulations.size();
+		List<Simulation<S>.Accumulator> accumulators = new ArrayList<>();
+		List<Queue<Replication<S>>> idle = new ArrayList<>();
+		try {
+			for (Simulation<S> simulation : simulations) {
+				if (target != null) {
+					simulation.checkTarget(target);
+				}
+				accumulators.add(simulation.start(n, target));
+				Queue<Replication<S>> queue = new ConcurrentLinkedQueue<>();
+				queue.add(simulation.getReplication());
+				idle.add(queue);
+			}
+		}
+		catch (RuntimeException ex) {
+			status = Status.FAILED;
+			throw ex;
+		}
+
+		// unit u is block u / k of configuration u % k; the units are handed out round by round, as k times the number of
+		// blocks overflows when there is no real maximum of replications
+		long blocks = accumulators.get(0).getBlocks();
+		AtomicLong nextUnit = new AtomicLong();
+		// configurations that may still need blocks, so the threads stop once all of them have reached their target
+		AtomicInteger unfinished = new AtomicInteger(k);
+		AtomicBoolean[] finished = new AtomicBoolean[k];
+		for (int c = 0; c < k; c++) {
+			finished[c] = new AtomicBoolean();
+		}
+		int parallelism = Simulation.parallelism(executor);
+		long workers = Math.min(k * Math.min(blocks, parallelism), parallelism);
+		Simulation.WorkerGate gate = new Simulation.WorkerGate();
+		List<Future<?>> tasks = new ArrayList<>();
+		for (long w = 0; w < workers; w++) {
+			tasks.add(executor.submit(() -> {
+				if (!gate.enter()) {
+					return;
+				}
+				try {
+					runUnits(accumulators, idle, nextUnit, blocks, unfinished, finished);
+				}
+				finally {
+					gate.leave();
+				}
+			}));
+		}
+		try {
+			await(tasks);
+		} catch (RuntimeException | Error ex) {
+			gate.close();
+			for (int c = 0; c < k; c++) {
+				simulations.get(c).fail(accumulators.get(c), ex);
+			}
+			throw ex;
+		}
+		for (int c = 0; c < k; c++) {
+			simulations.get(c).finish(accumulators.get(c));
+		}
+		status = Status.SUCCESS;
+	}
+	
+	/**
+	 * Runs the blocks of the interleaved sequence until none are left or no configuration needs more blocks.
+	 */
+	private void runUnits(List<Simulation<S>.Accumulator> accumulators, List<Queue<Replication<S>>> idle, 
+			AtomicLong nextUnit, long blocks, AtomicInteger unfinished, AtomicBoolean[] finished) {
+		int k = simulations.size();
+		long unit;
+		while (!Thread.currentThread().isInterrupted() && unfinished.get() > 0
+				&& (unit = nextUnit.getAndIncrement()) / k < blocks) {
+			int c = (int) (unit % k);
+			long block = unit / k;
+			Simulation<S>.Accumulator accumulator = accumulators.get(c);
+			if (!accumulator.isNeeded(block)) {
+				// no later block of this configuration is needed either
+				if (finished[c].compareAndSet(false, true)) {
+					unfinished.decrementAndGet();
+				}
+				continue;
+			}
+			Simulation<S> simulation = simulations.get(c);
+			Replication<S> replication = idle.get(c).poll();
+			if (replication == null) {
+				replication = simulation.createReplication();
+			}
+			try {
+				accumulator.complete(block, simulation.runBlock(replication, block, accumulator.getMaxReplications()));
+			}
+			finally {
+				idle.get(c).add(replication);
+			}
+		}
+	}
+
+	private void checkParallelism(int parallelism) {
+		if (parallelism < 1) {
+			status = Status.FAILED;
+			throw new IllegalArgumentException("Parallelism must be >= 1");
+		}
+	}
+
+	private void await(List<Future<?>> tasks) {
+		try {
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException ex) {
+			cancel(tasks);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the replications to finish.", ex);
+		} catch (ExecutionException ex) {
+			cancel(tasks);
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			else {
+				throw new IllegalStateException("Unexpected exception while running replications.", cause);
+			}
+		}
+	}
+
+	private void cancel(List<Future<?>> tasks) {
+		status = Status.FAILED;
+		for (Future<?> task : tasks) {
+			task.cancel(true);
+		}
+	}
+
+	/**
+	 *
+	 * @return Returns the configurations, in the order they were passed to the constructor
+	 */
+	public List<C> getConfigurations() {
+		return configurations;
+	}
+
+	/**
+	 *
+	 * @param index	Index of a configuration
+	 * @return Returns the simulation of the configuration, which holds its estimates after a run
+	 */
+	public Simulation<S> getSimulation(int index) {
+		return simulations.get(index);
+	}
+
+	/**
+	 *
+	 * @return Returns the simulations of all configurations, in the order of the configurations
+	 */
+	public List<Simulation<S>> getSimulations() {
+		return Collections.unmodifiableList(simulations);
+	}
+
+	/**
+	 *
+	 * @return Returns the status of the sweep.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	public void printEstimates() {
+		PrintWriter pw = new PrintWriter(System.out);
+		printEstimates(pw);
+		pw.flush();
+	}
+
+	public void printEstimates(PrintStream out) {
+		for (int c = 0; c < configurations.size(); c++) {
+			out.println(configurations.get(c));
+			simulations.get(c).printEstimates(out);
+		}
+	}
+
+	public void printEstimates(PrintWriter out) {
+		for (int c = 0; c < configurations.size(); c++) {
+			out.println(configurations.get(c));
+			simulations.get(c).printEstimates(out);
+		}
+	}
+}
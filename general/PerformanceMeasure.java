@@ -1,5 +1,8 @@
 package general;
 
+import general.statistics.QuantileSketch;
+import general.statistics.SummaryStatistics;
+
 /**
  * Abstract class representing a performance measure. After running {@link Simulation}, the user has access to the 
  * {@link #getMean()} and {@link #getStandardError()} methods.
@@ -13,6 +16,8 @@ public abstract class PerformanceMeasure<S extends SystemState<S>> {
 	private final String name;
 	private Double mean;
 	private Double std;
+	private SummaryStatistics statistics;
+	private QuantileSketch sketch;
 	
 	public PerformanceMeasure(String name) {
 		this.name = name;
@@ -64,6 +69,70 @@ public abstract class PerformanceMeasure<S extends SystemState<S>> {
 		this.std = std;
 	}
 	
+	/**
+	 * Sets the mean and standard error of the performance measure from the values observed in all replications.
+	 * 
+	 * @param statistics	Statistics of the observed values
+	 */
+	public void setStatistics(SummaryStatistics statistics) {
+		this.statistics = new SummaryStatistics(statistics);
+		setMean(statistics.getMean());
+		setStandardError(statistics.getStandardError());
+	}
+	
+	/**
+	 * The statistics of different simulations of the same model can be combined with {@link SummaryStatistics#merge(SummaryStatistics)}.
+	 * 
+	 * @return	Returns a copy of the statistics of the values observed in all replications
+	 */
+	public SummaryStatistics getStatistics() {
+		if (statistics == null) {
+			throw new IllegalAccessError("The simulation has not been run yet");
+		}
+		return new SummaryStatistics(statistics);
+	}
+	
+	/**
+	 * Sets the sketch of the values of the performance measure in all replications, from which quantiles are estimated.
+	 * 
+	 * @param sketch	Sketch of the observed values, or <code>null</code> if quantiles were not tracked
+	 */
+	public void setQuantileSketch(QuantileSketch sketch) {
+		this.sketch = sketch == null ? null : new QuantileSketch(sketch);
+	}
+	
+	/**
+	 * 
+	 * @return Returns true if the last simulation tracked the quantiles of this performance measure
+	 */
+	public boolean hasQuantileSketch() {
+		return sketch != null;
+	}
+	
+	/**
+	 * Estimates a quantile of the values of the performance measure over the replications, for example the 
+	 * 95th percentile with <code>q = 0.95</code>. Requires {@link Simulation#setReportedQuantiles(double...)}.
+	 * 
+	 * @param q	Probability between 0 and 1
+	 * @return	Returns the estimated quantile
+	 */
+	public double getQuantile(double q) {
+		if (sketch == null) {
+			throw new IllegalStateException("The quantiles of " + name + " were not tracked; see Simulation.setReportedQuantiles");
+		}
+		return sketch.getQuantile(q);
+	}
+	
+	/**
+	 * Sketches of different simulations of the same model can be combined with {@link QuantileSketch#merge(QuantileSketch)}.
+	 * 
+	 * @return	Returns a copy of the quantile sketch of the values observed in all replications, or <code>null</code> 
+	 * 			if quantiles were not tracked
+	 */
+	public QuantileSketch getQuantileSketch() {
+		return sketch == null ? null : new QuantileSketch(sketch);
+	}
+	
 	/**
 	 * @return Returns the name of the performance measure
 	 */
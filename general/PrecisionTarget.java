@@ -0,0 +1,139 @@
+package general;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import general.statistics.Distributions;
+import general.statistics.SummaryStatistics;
+
+/**
+ * Precision that the estimates of a {@link Simulation} should reach before it stops launching replications, see
+ * {@link Simulation#run(PrecisionTarget, long)}. The precision is the half-width of the Student t confidence interval
+ * for the mean of a performance measure, either as an absolute value or relative to the absolute value of the mean.
+ *
+ * By default the target applies to all performance measures of the simulation; {@link #forMeasures(String...)}
+ * restricts it to a subset. A target is serializable, so it can be saved with a checkpoint of a run.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public final class PrecisionTarget implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final double halfWidth;
+	private final boolean relative;
+	private final double confidence;
+	private final Set<String> measures;
+
+	private PrecisionTarget(double halfWidth, boolean relative, double confidence, Set<String> measures) {
+		if (!(halfWidth > 0)) {
+			throw new IllegalArgumentException("Half-width must be > 0");
+		}
+		if (!(confidence > 0 && confidence < 1)) {
+			throw new IllegalArgumentException("Confidence level must be strictly between 0 and 1");
+		}
+		this.halfWidth = halfWidth;
+		this.relative = relative;
+		this.confidence = confidence;
+		this.measures = measures;
+	}
+
+	/**
+	 * @param halfWidth		Largest acceptable half-width of the confidence intervals
+	 * @param confidence	Confidence level of the intervals, for example 0.95
+	 * @return Returns a target on the absolute half-width of the confidence intervals
+	 */
+	public static PrecisionTarget absolute(double halfWidth, double confidence) {
+		return new PrecisionTarget(halfWidth, false, confidence, Collections.emptySet());
+	}
+
+	/**
+	 * @param fraction		Largest acceptable half-width of the confidence intervals, as a fraction of the absolute value of the mean
+	 * @param confidence	Confidence level of the intervals, for example 0.95
+	 * @return Returns a target on the half-width of the confidence intervals relative to the estimate
+	 */
+	public static PrecisionTarget relative(double fraction, double confidence) {
+		return new PrecisionTarget(fraction, true, confidence, Collections.emptySet());
+	}
+
+	/**
+	 * @param names	Names of the performance measures the target applies to
+	 * @return Returns a copy of this target that only applies to the given performance measures
+	 */
+	public PrecisionTarget forMeasures(String... names) {
+		if (names.length == 0) {
+			throw new IllegalArgumentException("At least one performance measure must be given");
+		}
+		Set<String> set = new LinkedHashSet<>(Arrays.asList(names));
+		return new PrecisionTarget(halfWidth, relative, confidence, Collections.unmodifiableSet(set));
+	}
+
+	/**
+	 * @param measure	A performance measure of the simulation
+	 * @return Returns true if this target applies to <code>measure</code>
+	 */
+	public boolean appliesTo(PerformanceMeasure<?> measure) {
+		return measures.isEmpty() || measures.contains(measure.getName());
+	}
+
+	/**
+	 * @return Returns the names of the performance measures the target applies to, or an empty set if it applies to all of them
+	 */
+	public Set<String> getMeasures() {
+		return measures;
+	}
+
+	/**
+	 * @param statistics	Statistics of the values of one performance measure
+	 * @return Returns the half-width of the confidence interval for the mean, or <code>NaN</code> for less than two values
+	 */
+	public double getHalfWidth(SummaryStatistics statistics) {
+		return getHalfWidth(statistics.getStandardError(), statistics.getCount() - 1);
+	}
+
+	/**
+	 * @param standardError		Standard error of an estimate
+	 * @param degreesOfFreedom	Degrees of freedom of the standard error
+	 * @return Returns the half-width of the confidence interval, or <code>NaN</code> for less than one degree of freedom
+	 */
+	public double getHalfWidth(double standardError, double degreesOfFreedom) {
+		if (!(degreesOfFreedom >= 1)) {
+			return Double.NaN;
+		}
+		double t = Distributions.studentTQuantile(1 - (1 - confidence) / 2, degreesOfFreedom);
+		return t * standardError;
+	}
+
+	/**
+	 * @param statistics	Statistics of the values of one performance measure
+	 * @return Returns true if the confidence interval for the mean is narrow enough
+	 */
+	public boolean isReached(SummaryStatistics statistics) {
+		return isReached(statistics.getMean(), statistics.getStandardError(), statistics.getCount() - 1);
+	}
+
+	/**
+	 * @param mean				Estimate of a performance measure
+	 * @param standardError		Standard error of the estimate
+	 * @param degreesOfFreedom	Degrees of freedom of the standard error
+	 * @return Returns true if the confidence interval for the estimate is narrow enough
+	 */
+	public boolean isReached(double mean, double standardError, double degreesOfFreedom) {
+		double h = getHalfWidth(standardError, degreesOfFreedom);
+		if (Double.isNaN(h)) {
+			return false;
+		}
+		double limit = relative ? halfWidth * Math.abs(mean) : halfWidth;
+		return h <= limit;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + (relative ? "relative" : "absolute") + " half-width " + halfWidth + " at " + confidence
+				+ (measures.isEmpty() ? "" : " for " + measures) + "]";
+	}
+}
@@ -0,0 +1,472 @@
+package general;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import general.statistics.SummaryStatistics;
+
+/**
+ * Selects the best of a number of alternatives, such as seat allocations, by one performance measure, with the fully
+ * sequential procedure KN of Kim and Nelson (2001).
+ *
+ * Every alternative is first run for a number of replications, from which the variance of the difference between every
+ * two alternatives is estimated. After that, the surviving alternatives get more replications in stages, and after every
+ * stage an alternative is eliminated when its mean falls too far below the mean of another survivor; how far depends
+ * on the variance of their difference and shrinks as replications are added. When one alternative is left, it is the best
+ * with probability at least <code>confidence</code>, provided that the best is at least <code>indifference</code> better
+ * than all others. Clearly inferior alternatives are thus dropped after a few replications, and most replications go
+ * to the close contenders.
+ *
+ * Replication <code>i</code> of every alternative is seeded with {@link SystemState#seedReplication(long)}, so when the
+ * states of all alternatives are constructed with the same seed, the alternatives are compared with common random
+ * numbers. This makes the differences much less variable, which the procedure turns into fewer replications. As in
+ * {@link Simulation}, the outcome depends on the seed only, not on the number of threads.
+ *
+ * @author Nemanja Milovanovic
+ *
+ * @param <C> Type of an alternative
+ * @param <S> A user-defined system state class.
+ */
+public class RankingAndSelection<C, S extends SystemState<S>> {
+
+	private static final int DEFAULT_FIRST_STAGE = 20;
+
+	private final List<C> alternatives;
+	private final Function<? super C, ? extends Replication<S>> factory;
+	private final List<PerformanceMeasure<S>> measures;
+	private final List<Queue<Replication<S>>> idle;
+	private boolean minimize;
+	private int firstStage = DEFAULT_FIRST_STAGE;
+	private int stageSize = 1;
+	private Status status;
+
+	private SummaryStatistics[] statistics;
+	private boolean[] eliminated;
+	private long[] eliminatedAfter;
+	private int best;
+
+	/**
+	 * @param alternatives	Alternatives to compare, at least two
+	 * @param factory		Function that creates a new replication, with its own system state, for an alternative
+	 * @param measure		Name of the {@link general.annotations.AutoMeasure} performance measure to compare
+	 */
+	public RankingAndSelection(
+			List<? extends C> alternatives,
+			Function<? super C, ? extends Replication<S>> factory,
+			String measure) {
+		if (alternatives.size() < 2) {
+			throw new IllegalArgumentException("At least two alternatives are needed");
+		}
+		this.alternatives = Collections.unmodifiableList(new ArrayList<>(alternatives));
+		this.factory = factory;
+		measures = new ArrayList<>();
+		idle = new ArrayList<>();
+		for (C alternative : this.alternatives) {
+			Replication<S> replication = factory.apply(alternative);
+			PerformanceMeasure<S> pm = replication.getSystemState().getAutomaticMeasures().stream()
+					.filter(m -> m.getName().equals(measure))
+					.findFirst()
+					.orElseThrow(() -> new IllegalArgumentException("The state has no performance measure named '" + measure + "'"));
+			measures.add(pm);
+			Queue<Replication<S>> queue = new ConcurrentLinkedQueue<>();
+			queue.add(replication);
+			idle.add(queue);
+		}
+	}
+
+	/**
+	 * @param minimize	True if the alternative with the smallest mean is the best, false (the default) for the largest mean
+	 */
+	public void setMinimize(boolean minimize) {
+		this.minimize = minimize;
+	}
+
+	/**
+	 *
+	 * @return Returns true if the alternative with the smallest mean is the best
+	 */
+	public boolean isMinimize() {
+		return minimize;
+	}
+
+	/**
+	 * Sets the number of replications of every alternative from which the variances are estimated. More replications
+	 * give better variance estimates and hence fewer replications later on, but are spent on every alternative.
+	 *
+	 * @param replications	Number of replications in the first stage, at least 2, 20 by default
+	 */
+	public void setFirstStageReplications(int replications) {
+		if (replications < 2) {
+			throw new IllegalArgumentException("The first stage needs at least 2 replications");
+		}
+		firstStage = replications;
+	}
+
+	/**
+	 * Sets the number of replications that every surviving alternative gets in a stage after the first one. The
+	 * procedure of Kim and Nelson uses one replication per stage. Larger stages keep more threads busy when few
+	 * alternatives survive, at the cost of eliminating alternatives a little later; the guarantee is not affected.
+	 *
+	 * @param replications	Number of replications per stage, at least 1
+	 */
+	public void setStageReplications(int replications) {
+		if (replications < 1) {
+			throw new IllegalArgumentException("A stage needs at least 1 replication");
+		}
+		stageSize = replications;
+	}
+
+	/**
+	 * Runs the procedure on the current thread.
+	 *
+	 * @param indifference	Smallest difference in the mean that is worth detecting
+	 * @param confidence	Probability of selecting the best alternative, for example 0.95
+	 * @return Returns the index of the selected alternative
+	 */
+	public int select(double indifference, double confidence) {
+		return select(indifference, confidence, (ExecutorService) null);
+	}
+
+	/**
+	 * Runs the procedure with <code>parallelism</code> worker threads, which run the replications of a stage.
+	 *
+	 * @param indifference	Smallest difference in the mean that is worth detecting
+	 * @param confidence	Probability of selecting the best alternative, for example 0.95
+	 * @param parallelism	Number of worker threads
+	 * @return Returns the index of the selected alternative
+	 */
+	public int select(double indifference, double confidence, int parallelism) {
+		if (parallelism < 1) {
+			status = Status.FAILED;
+			throw new IllegalArgumentException("Parallelism must be >= 1");
+		}
+		if (parallelism == 1) {
+			return select(indifference, confidence);
+		}
+		Simulation.withPool(parallelism, executor -> select(indifference, confidence, executor));
+		return best;
+	}
+
+	/**
+	 * Like {@link #select(double, double, int)}, but runs the replications on the threads of <code>executor</code>.
+	 *
+	 * @param indifference	Smallest difference in the mean that is worth detecting
+	 * @param confidence	Probability of selecting the best alternative, for example 0.95
+	 * @param executor		Executor that runs the replications, or <code>null</code> to run them on the current thread;
+	 * 						it is not shut down afterwards
+	 * @return Returns the index of the selected alternative
+	 */
+	public int select(double indifference, double confidence, ExecutorService executor) {
+		if (!(indifference > 0) || Double.isInfinite(indifference)) {
+			status = Status.FAILED;
+			throw new IllegalArgumentException("Indifference-zone parameter must be > 0");
+		}
+		if (!(confidence > 1.0 / alternatives.size() && confidence < 1)) {
+			status = Status.FAILED;
+			throw new IllegalArgumentException("Confidence must be between 1/k and 1");
+		}
+		status = Status.ACTIVE;
+		int k = alternatives.size();
+		statistics = new SummaryStatistics[k];
+		eliminated = new boolean[k];
+		eliminatedAfter = new long[k];
+		for (int i = 0; i < k; i++) {
+			statistics[i] = new SummaryStatistics();
+		}
+
+		// first stage: the variance of the difference between every two alternatives
+		double[][] first = runStage(0, firstStage, executor);
+		double[][] variances = new double[k][k];
+		double h2 = h2(k, confidence);
+		double delta2 = indifference * indifference;
+		long lastStage = firstStage;
+		for (int i = 0; i < k; i++) {
+			for (int l = i + 1; l < k; l++) {
+				SummaryStatistics difference = new SummaryStatistics();
+				for (int r = 0; r < firstStage; r++) {
+					difference.add(first[i][r] - first[l][r]);
+				}
+				variances[i][l] = difference.getVariance();
+				variances[l][i] = variances[i][l];
+				// after this many replications the pair is decided on the means alone
+				lastStage = Math.max(lastStage, (long) Math.floor(h2 * variances[i][l] / delta2) + 1);
+			}
+		}
+
+		long r = firstStage;
+		while (survivors() > 1) {
+			eliminate(r, h2, variances, indifference, r >= lastStage);
+			if (survivors() > 1) {
+				runStage(r, stageSize, executor);
+				r += stageSize;
+			}
+		}
+		for (int i = 0; i < k; i++) {
+			measures.get(i).setStatistics(statistics[i]);
+			if (!eliminated[i]) {
+				best = i;
+			}
+		}
+		status = Status.SUCCESS;
+		return best;
+	}
+
+	/**
+	 * The constant <code>h^2 = 2 eta (n0 - 1)</code> of procedure KN.
+	 */
+	private double h2(int k, double confidence) {
+		double alpha = 1 - confidence;
+		double eta = 0.5 * (Math.pow(2 * alpha / (k - 1), -2.0 / (firstStage - 1)) - 1);
+		return 2 * eta * (firstStage - 1);
+	}
+
+	/**
+	 * Eliminates every survivor whose mean after <code>r</code> replications is too far below that of another survivor.
+	 * In the last stage only the best mean survives.
+	 */
+	private void eliminate(long r, double h2, double[][] variances, double indifference, boolean last) {
+		int k = alternatives.size();
+		boolean[] out = new boolean[k];
+		for (int i = 0; i < k; i++) {
+			if (eliminated[i]) {
+				continue;
+			}
+			for (int l = 0; l < k; l++) {
+				if (l == i || eliminated[l]) {
+					continue;
+				}
+				double w = last ? 0 : Math.max(0, indifference / (2.0 * r) * (h2 * variances[i][l] / (indifference * indifference) - r));
+				if (mean(i) < mean(l) - w || (last && mean(i) == mean(l) && l < i)) {
+					out[i] = true;
+					break;
+				}
+			}
+		}
+		for (int i = 0; i < k; i++) {
+			if (out[i]) {
+				eliminated[i] = true;
+				eliminatedAfter[i] = r;
+			}
+		}
+	}
+
+	/**
+	 * @return Returns the mean of alternative <code>i</code>, with the sign such that larger is better
+	 */
+	private double mean(int i) {
+		double mean = statistics[i].getMean();
+		return minimize ? -mean : mean;
+	}
+
+	private int survivors() {
+		int n = 0;
+		for (boolean e : eliminated) {
+			if (!e) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Runs replications <code>from</code> up to <code>from + count</code> of every surviving alternative, and adds
+	 * their values to the statistics in the order of the replications.
+	 *
+	 * @return Returns the values, per alternative and replication
+	 */
+	private double[][] runStage(long from, int count, ExecutorService executor) {
+		int k = alternatives.size();
+		double[][] values = new double[k][count];
+		List<Integer> running = new ArrayList<>();
+		for (int i = 0; i < k; i++) {
+			if (!eliminated[i]) {
+				running.add(i);
+			}
+		}
+		long units = (long) running.size() * count;
+		AtomicLong nextUnit = new AtomicLong();
+		Runnable worker = () -> {
+			long unit;
+			while (!Thread.currentThread().isInterrupted() && (unit = nextUnit.getAndIncrement()) < units) {
+				int i = running.get((int) (unit % running.size()));
+				int r = (int) (unit / running.size());
+				values[i][r] = runReplication(i, from + r);
+			}
+		};
+		if (executor == null) {
+			worker.run();
+		}
+		else {
+			long workers = Math.min(units, Simulation.parallelism(executor));
+			List<Future<?>> tasks = new ArrayList<>();
+			for (long w = 0; w < workers; w++) {
+				tasks.add(executor.submit(worker));
+			}
+			await(tasks);
+		}
+		for (int i : running) {
+			for (int r = 0; r < count; r++) {
+				statistics[i].add(values[i][r]);
+			}
+		}
+		return values;
+	}
+
+	private double runReplication(int alternative, long index) {
+		Queue<Replication<S>> queue = idle.get(alternative);
+		Replication<S> replication = queue.poll();
+		if (replication == null) {
+			replication = factory.apply(alternatives.get(alternative));
+		}
+		try {
+			S state = replication.getSystemState();
+			state.seedReplication(index);
+			replication.reset();
+			replication.initialize();
+			replication.run();
+			if (replication.getStatus() == Status.FAILED) {
+				throw new IllegalStateException("Replication #" + (index + 1) + " of alternative " + alternatives.get(alternative) + " failed.");
+			}
+			return measures.get(alternative).compute(state);
+		}
+		finally {
+			queue.add(replication);
+		}
+	}
+
+	private void await(List<Future<?>> tasks) {
+		try {
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException ex) {
+			cancel(tasks);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the replications to finish.", ex);
+		} catch (ExecutionException ex) {
+			cancel(tasks);
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			else {
+				throw new IllegalStateException("Unexpected exception while running replications.", cause);
+			}
+		}
+	}
+
+	private void cancel(List<Future<?>> tasks) {
+		status = Status.FAILED;
+		for (Future<?> task : tasks) {
+			task.cancel(true);
+		}
+	}
+
+	/**
+	 *
+	 * @return Returns the index of the alternative selected by the last run
+	 */
+	public int getBest() {
+		checkRun();
+		return best;
+	}
+
+	/**
+	 *
+	 * @return Returns the alternative selected by the last run
+	 */
+	public C getBestAlternative() {
+		return alternatives.get(getBest());
+	}
+
+	/**
+	 *
+	 * @param alternative	Index of an alternative
+	 * @return Returns the number of replications of the alternative in the last run
+	 */
+	public long getReplications(int alternative) {
+		checkRun();
+		return statistics[alternative].getCount();
+	}
+
+	/**
+	 *
+	 * @return Returns the number of replications of all alternatives together in the last run
+	 */
+	public long getTotalReplications() {
+		checkRun();
+		long total = 0;
+		for (SummaryStatistics s : statistics) {
+			total += s.getCount();
+		}
+		return total;
+	}
+
+	/**
+	 *
+	 * @param alternative	Index of an alternative
+	 * @return Returns the performance measure of the alternative, with the estimate from its replications in the last run
+	 */
+	public PerformanceMeasure<S> getPerformanceMeasure(int alternative) {
+		return measures.get(alternative);
+	}
+
+	/**
+	 *
+	 * @return Returns the alternatives, in the order they were passed to the constructor
+	 */
+	public List<C> getAlternatives() {
+		return alternatives;
+	}
+
+	/**
+	 *
+	 * @return Returns the status of the procedure.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	private void checkRun() {
+		if (status != Status.SUCCESS) {
+			throw new IllegalStateException("The selection has not been run yet");
+		}
+	}
+
+	public void printEstimates() {
+		PrintWriter pw = new PrintWriter(System.out);
+		printEstimates(pw);
+		pw.flush();
+	}
+
+	public void printEstimates(PrintStream out) {
+		for (int i = 0; i < alternatives.size(); i++) {
+			out.println(describe(i));
+		}
+	}
+
+	public void printEstimates(PrintWriter out) {
+		for (int i = 0; i < alternatives.size(); i++) {
+			out.println(describe(i));
+		}
+	}
+
+	private String describe(int i) {
+		checkRun();
+		String outcome = eliminated[i] ? "eliminated after " + eliminatedAfter[i] + " replications" : "selected";
+		return alternatives.get(i) + " " + measures.get(i) + " " + outcome;
+	}
+}
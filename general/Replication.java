@@ -1,7 +1,5 @@
 package general;
 
-import java.util.PriorityQueue;
-
 /**
  * This class represents one replication of a Discrete-Event Simulation (DES).
  * 
@@ -30,13 +28,18 @@ public abstract class Replication<S extends SystemState<S>> {
 	 * 
 	 * First we extract the next <code>Event</code> form the queue, we process it, then extract the next one, and so on. 
 	 * The simulation is terminated when <code>shouldTerminate</code> evaluates to true. Note that <code>shouldTerminate</code> 
-	 * is run after the event is retrieved, but before it is processed. After we process an event, we set the current time to the time of the event. 
+	 * is run after the event is retrieved, but before it is processed. Before we process an event, we set the current time to the time of the event, 
+	 * so the event sees the clock at its own time and {@link TimeWeightedCounter}s are integrated up to the moment their level changes. 
+	 * When the simulation passes the time horizon, the clock is advanced to the time horizon.
+	 * When the state has a {@link WarmupDetector}, the warm-up period is removed from the counters once the simulation has terminated.
 	 */
 	public void run() {
-		PriorityQueue<Event<S>> queue = state.getQueue();
+		EventQueue<S> queue = state.getQueue();
+		WarmupDetector detector = state.getWarmupDetector();
 		while (true) {
 			Event<S> e = queue.poll();
-			if (e == null) {
+			// the ends of the intervals of a warm-up detector are not events of the model
+			if (e == null || (detector != null && queue.isEmpty() && detector.isBoundary(e))) {
 				status = Status.FAILED;
 				throw new IllegalStateException("The event queue is empty before the official termination criterion has been satisfied.");
 			}
@@ -44,6 +47,7 @@ public abstract class Replication<S extends SystemState<S>> {
 			// check if we should terminate due to time
 			if (state.passedTimeHorizon(e)) {
 				status = Status.TIME_TERMINATED;
+				state.updateCurrentTime(state.getTimeHorizon());
 				break;
 			}
 			
@@ -53,9 +57,13 @@ public abstract class Replication<S extends SystemState<S>> {
 				break;
 			}
 			
-			e.process(state);
 			double newTime = e.getTime();
 			state.updateCurrentTime(newTime);
+			e.process(state);
+			e.release();
+		}
+		if (detector != null) {
+			detector.truncate();
 		}
 	}
 	
@@ -84,15 +92,18 @@ public abstract class Replication<S extends SystemState<S>> {
 	}
 	
 	/**
-	 * Resets the event queue, simulation clock, counters, and system state
+	 * Resets the event queue, simulation clock, counters, and system state, and restarts the warm-up detector of the state
 	 */
 	public void reset() {
+		state.clearEvents();
 		// This step slow down the replication, but is more safe
 		state.injectCounters();
 		state.updateCurrentTime(0);
-		for (Counter c : state.getCounters()) {
-			c.reset();
-		}
+		state.resetCounters();
 		state.reset();
+		WarmupDetector detector = state.getWarmupDetector();
+		if (detector != null) {
+			detector.start(state);
+		}
 	}
 }
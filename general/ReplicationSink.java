@@ -0,0 +1,59 @@
+package general;
+
+import java.util.List;
+
+/**
+ * Receives the values of the performance measures of every replication of a {@link Simulation}, which otherwise only
+ * keeps their statistics. A sink is set with {@link Simulation#setReplicationSink(ReplicationSink)}.
+ *
+ * The replications of a run are passed to {@link #accept(long, long, Status, long, double[])} by the threads that run
+ * them, so a sink must be thread-safe, and replications arrive in blocks that can complete in any order. Every
+ * replication is passed once, also when it is run after the precision target of the run has already been reached;
+ * {@link #finish(long)} tells how many of the first replications the estimates are based on. With antithetic
+ * replications the values are the averages over a pair, as in the statistics. A sink that is slow, for example because
+ * it formats and writes text, can be moved off the threads of the simulation with a {@link ResultExporter}.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public interface ReplicationSink {
+
+	/**
+	 * Called before the first replication of a run.
+	 *
+	 * @param measures		Names of the performance measures, in the order of the values passed to {@link #accept(long, long, Status, long, double[])}
+	 * @param seed			Seed of the system state, from which replication <code>i</code> is seeded with {@link SystemState#seedReplication(long)}
+	 * @param antithetic	True if the values are averages over antithetic pairs of replications
+	 * @param from			Index of the first replication of the run, which is not 0 when the run is resumed from a checkpoint
+	 * @param replications	Largest number of replications of the run, including those before <code>from</code>
+	 */
+	void start(List<String> measures, long seed, boolean antithetic, long from, long replications);
+
+	/**
+	 * Called after every replication, possibly from several threads at the same time.
+	 *
+	 * @param replication	Index of the replication
+	 * @param seed			Seed of the replication, see {@link SystemState#getReplicationSeed()}
+	 * @param status		Status the replication ended with: {@link Status#TIME_TERMINATED} or {@link Status#USER_TERMINATED}
+	 * @param nanos			Wall-clock time the replication took, in nanoseconds, including its antithetic counterpart
+	 * @param values		Values of the performance measures; the array is reused, so it must not be kept
+	 */
+	void accept(long replication, long seed, Status status, long nanos, double[] values);
+
+	/**
+	 * Called before a checkpoint is written, see {@link Simulation#setCheckpoint(java.nio.file.Path, long)}. A sink that
+	 * buffers its output should write out every replication it has accepted so far, because a run resumed from the
+	 * checkpoint does not pass the replications before it again. By default, nothing is done.
+	 */
+	default void flush() {
+	}
+
+	/**
+	 * Called at the end of a run, once all its replications have been passed to
+	 * {@link #accept(long, long, Status, long, double[])}. This method is also called when the run fails, so the sink can
+	 * close its output.
+	 *
+	 * @param replications	Number of replications the estimates are based on: replications <code>0</code> up to this number
+	 */
+	void finish(long replications);
+}
@@ -0,0 +1,221 @@
+package general;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ReplicationSink} that hands the replications over to other sinks on a background thread, so formatting and
+ * writing the results does not hold up the threads that run the replications.
+ *
+ * The threads of the simulation copy the values of a replication into a bounded queue. The background thread takes all
+ * replications that are waiting at once, up to the capacity of the queue, and passes them to the sinks one after the
+ * other. When the sinks can not keep up and the queue is full, the simulation threads wait until there is room again,
+ * so the memory used by the exporter is bounded. The sinks are only called from one thread at a time, so they need not
+ * be thread-safe; {@link ReplicationSink#start(List, long, boolean, long, long)} and {@link ReplicationSink#finish(long)}
+ * are called on the thread that runs the simulation, and {@link #finish(long)} returns once every replication has been
+ * passed on and every sink has finished.
+ *
+ * {@link #flush()} waits until the replications that were handed over before it have been passed on, and then flushes
+ * every sink.
+ *
+ * If a sink throws an exception, the replications that are still waiting are dropped and the exception is rethrown to
+ * the simulation by the next replication that is handed over, or by {@link #finish(long)}.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class ResultExporter implements ReplicationSink {
+
+	private static final int DEFAULT_CAPACITY = 4096;
+	private static final Row END = new Row(-1, 0, null, 0, null);
+
+	private final List<ReplicationSink> sinks;
+	private final int capacity;
+	private BlockingQueue<Row> queue;
+	private Thread writer;
+	private volatile Throwable failure;
+	private volatile boolean running;
+
+	/**
+	 * @param sinks	Sinks to pass the replications to, for example a {@link ResultFile} and the printer of
+	 * 				{@link Simulation#createEstimatePrinter(java.io.PrintStream)}
+	 */
+	public ResultExporter(ReplicationSink... sinks) {
+		this(DEFAULT_CAPACITY, sinks);
+	}
+
+	/**
+	 * @param capacity	Largest number of replications waiting to be passed on
+	 * @param sinks		Sinks to pass the replications to
+	 */
+	public ResultExporter(int capacity, ReplicationSink... sinks) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be >= 1");
+		}
+		if (sinks.length == 0) {
+			throw new IllegalArgumentException("At least one sink is needed");
+		}
+		this.capacity = capacity;
+		this.sinks = new ArrayList<>(Arrays.asList(sinks));
+	}
+
+	@Override
+	public void start(List<String> measures, long seed, boolean antithetic, long from, long replications) {
+		for (ReplicationSink sink : sinks) {
+			sink.start(measures, seed, antithetic, from, replications);
+		}
+		queue = new ArrayBlockingQueue<>(capacity);
+		failure = null;
+		running = true;
+		writer = new Thread(this::write, "result-exporter");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void accept(long replication, long seed, Status status, long nanos, double[] values) {
+		if (!running) {
+			throw new IllegalStateException("The exporter has finished");
+		}
+		checkFailure();
+		put(new Row(replication, seed, status, nanos, values.clone()));
+	}
+
+	private void put(Row row) {
+		try {
+			while (!queue.offer(row, 100, TimeUnit.MILLISECONDS)) {
+				checkFailure();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the exporter", ex);
+		}
+	}
+
+	private void write() {
+		List<Row> batch = new ArrayList<>(capacity);
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, capacity - 1);
+				for (Row row : batch) {
+					if (row == END) {
+						return;
+					}
+					if (row.flushed != null) {
+						for (ReplicationSink sink : sinks) {
+							sink.flush();
+						}
+						row.flushed.countDown();
+						continue;
+					}
+					for (ReplicationSink sink : sinks) {
+						sink.accept(row.replication, row.seed, row.status, row.nanos, row.values);
+					}
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException ex) {
+			failure = ex;
+		} catch (RuntimeException | Error ex) {
+			failure = ex;
+			queue.clear();
+		}
+	}
+
+	@Override
+	public void flush() {
+		checkFailure();
+		CountDownLatch flushed = new CountDownLatch(1);
+		put(new Row(flushed));
+		try {
+			while (!flushed.await(100, TimeUnit.MILLISECONDS)) {
+				checkFailure();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the exporter", ex);
+		}
+	}
+
+	@Override
+	public void finish(long replications) {
+		running = false;
+		if (failure == null) {
+			try {
+				put(END);
+			} catch (RuntimeException ex) {
+				// the failure of the writer is reported below
+			}
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException ex) {
+			writer.interrupt();
+			Thread.currentThread().interrupt();
+		}
+		RuntimeException error = null;
+		for (ReplicationSink sink : sinks) {
+			try {
+				sink.finish(replications);
+			} catch (RuntimeException ex) {
+				if (error == null) {
+					error = ex;
+				}
+				else {
+					error.addSuppressed(ex);
+				}
+			}
+		}
+		if (failure != null) {
+			checkFailure();
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private void checkFailure() {
+		Throwable cause = failure;
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		else if (cause != null) {
+			throw new IllegalStateException("Exporting the results failed", cause);
+		}
+	}
+
+	private static final class Row {
+
+		private final long replication;
+		private final long seed;
+		private final Status status;
+		private final long nanos;
+		private final double[] values;
+		// set for a request to flush the sinks instead of a replication
+		private final CountDownLatch flushed;
+
+		Row(long replication, long seed, Status status, long nanos, double[] values) {
+			this.replication = replication;
+			this.seed = seed;
+			this.status = status;
+			this.nanos = nanos;
+			this.values = values;
+			this.flushed = null;
+		}
+
+		Row(CountDownLatch flushed) {
+			this.replication = -1;
+			this.seed = 0;
+			this.status = null;
+			this.nanos = 0;
+			this.values = null;
+			this.flushed = flushed;
+		}
+	}
+}
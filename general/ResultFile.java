@@ -0,0 +1,290 @@
+package general;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link ReplicationSink} that writes one line of text per replication: its index, its seed, its status, the
+ * wall-clock time it took in nanoseconds, and the value of every performance measure. {@link #csv(Path)} writes
+ * comma-separated values with a header line, {@link #jsonLines(Path)} writes one JSON object per line.
+ *
+ * The lines are written in the order the replications complete, which differs from their index when the simulation
+ * runs on several threads. At the end of a run, the lines of the replications that the estimates are not based on, such
+ * as those that were run after the precision target was reached, are removed again, so a finished file holds exactly
+ * the replications <code>0</code> up to {@link Simulation#getReplications()}. When a run is resumed from a checkpoint,
+ * the lines of the replications that are run again are removed from the existing file before new lines are appended.
+ * Formatting the lines takes time, so a result file is best wrapped in a {@link ResultExporter}; it can also be used on
+ * its own, as its methods are synchronized.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public abstract class ResultFile implements ReplicationSink {
+
+	private final Path file;
+	private Writer out;
+	private List<String> measures;
+	// one more than the largest index written to the file
+	private long end;
+
+	ResultFile(Path file) {
+		this.file = file;
+	}
+
+	/**
+	 * @param file	File to write, which is replaced by every run that does not resume from a checkpoint
+	 * @return Returns a sink that writes comma-separated values
+	 */
+	public static ResultFile csv(Path file) {
+		return new Csv(file);
+	}
+
+	/**
+	 * @param file	File to write, which is replaced by every run that does not resume from a checkpoint
+	 * @return Returns a sink that writes a JSON object per line
+	 */
+	public static ResultFile jsonLines(Path file) {
+		return new JsonLines(file);
+	}
+
+	@Override
+	public synchronized void start(List<String> measures, long seed, boolean antithetic, long from, long replications) {
+		this.measures = new ArrayList<>(measures);
+		end = from;
+		try {
+			if (from == 0 || !Files.exists(file)) {
+				out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+				writeHeader(out, this.measures);
+			}
+			else {
+				// the replications from the checkpoint on are run again
+				truncate(from);
+				out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Could not open " + file, ex);
+		}
+	}
+
+	@Override
+	public synchronized void accept(long replication, long seed, Status status, long nanos, double[] values) {
+		try {
+			writeRow(out, measures, replication, seed, status, nanos, values);
+			end = Math.max(end, replication + 1);
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Could not write " + file, ex);
+		}
+	}
+
+	@Override
+	public synchronized void flush() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.flush();
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Could not write " + file, ex);
+		}
+	}
+
+	@Override
+	public synchronized void finish(long replications) {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+			if (end > replications) {
+				truncate(replications);
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Could not write " + file, ex);
+		} finally {
+			out = null;
+		}
+	}
+
+	/**
+	 * Rewrites the file without the lines of replication <code>limit</code> and later ones, and without a last line that
+	 * was cut off when the run was killed.
+	 */
+	private void truncate(long limit) throws IOException {
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		boolean complete = endsWithNewline();
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+				BufferedWriter copy = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			boolean first = true;
+			String line = in.readLine();
+			while (line != null) {
+				String next = in.readLine();
+				if ((next != null || complete)
+						&& ((first && isHeader(line)) || (!line.isEmpty() && index(line) < limit))) {
+					copy.write(line);
+					copy.write('\n');
+				}
+				first = false;
+				line = next;
+			}
+		}
+		try {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		end = Math.min(end, limit);
+	}
+
+	private boolean endsWithNewline() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() == 0) {
+				return true;
+			}
+			ByteBuffer last = ByteBuffer.allocate(1);
+			channel.read(last, channel.size() - 1);
+			return last.get(0) == '\n';
+		}
+	}
+
+	abstract void writeHeader(Writer out, List<String> measures) throws IOException;
+
+	/**
+	 * @return Returns true if <code>line</code>, the first line of the file, is the header written by {@link #writeHeader(Writer, List)}
+	 */
+	abstract boolean isHeader(String line);
+
+	/**
+	 * @return Returns the index of the replication of a line written by {@link #writeRow(Writer, List, long, long, Status, long, double[])}
+	 */
+	abstract long index(String line);
+
+	abstract void writeRow(Writer out, List<String> measures, long replication, long seed, Status status, long nanos,
+			double[] values) throws IOException;
+
+	private static final class Csv extends ResultFile {
+
+		Csv(Path file) {
+			super(file);
+		}
+
+		@Override
+		void writeHeader(Writer out, List<String> measures) throws IOException {
+			out.write("replication,seed,status,nanos");
+			for (String name : measures) {
+				out.write(',');
+				out.write(quote(name));
+			}
+			out.write('\n');
+		}
+
+		@Override
+		boolean isHeader(String line) {
+			return line.startsWith("replication,");
+		}
+
+		@Override
+		long index(String line) {
+			return Long.parseLong(line.substring(0, line.indexOf(',')));
+		}
+
+		@Override
+		void writeRow(Writer out, List<String> measures, long replication, long seed, Status status, long nanos,
+				double[] values) throws IOException {
+			out.write(Long.toString(replication));
+			out.write(',');
+			out.write(Long.toString(seed));
+			out.write(',');
+			out.write(status.name());
+			out.write(',');
+			out.write(Long.toString(nanos));
+			for (double value : values) {
+				out.write(',');
+				out.write(Double.toString(value));
+			}
+			out.write('\n');
+		}
+
+		private static String quote(String name) {
+			if (name.indexOf(',') < 0 && name.indexOf('"') < 0 && name.indexOf('\n') < 0) {
+				return name;
+			}
+			return '"' + name.replace("\"", "\"\"") + '"';
+		}
+	}
+
+	private static final class JsonLines extends ResultFile {
+
+		JsonLines(Path file) {
+			super(file);
+		}
+
+		@Override
+		void writeHeader(Writer out, List<String> measures) {
+			// every line names its values
+		}
+
+		@Override
+		boolean isHeader(String line) {
+			return false;
+		}
+
+		@Override
+		long index(String line) {
+			int start = line.indexOf(':') + 1;
+			return Long.parseLong(line.substring(start, line.indexOf(',', start)));
+		}
+
+		@Override
+		void writeRow(Writer out, List<String> measures, long replication, long seed, Status status, long nanos,
+				double[] values) throws IOException {
+			out.write("{\"replication\":");
+			out.write(Long.toString(replication));
+			out.write(",\"seed\":");
+			out.write(Long.toString(seed));
+			out.write(",\"status\":\"");
+			out.write(status.name());
+			out.write("\",\"nanos\":");
+			out.write(Long.toString(nanos));
+			out.write(",\"measures\":{");
+			for (int j = 0; j < values.length; j++) {
+				if (j > 0) {
+					out.write(',');
+				}
+				out.write(quote(measures.get(j)));
+				out.write(':');
+				// JSON has no NaN or infinity
+				out.write(Double.isNaN(values[j]) || Double.isInfinite(values[j]) ? "null" : Double.toString(values[j]));
+			}
+			out.write("}}\n");
+		}
+
+		private static String quote(String name) {
+			StringBuilder sb = new StringBuilder("\"");
+			for (char c : name.toCharArray()) {
+				if (c == '"' || c == '\\') {
+					sb.append('\\').append(c);
+				}
+				else if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				}
+				else {
+					sb.append(c);
+				}
+			}
+			return sb.append('"').toString();
+		}
+	}
+}
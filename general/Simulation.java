@@ -1,24 +1,86 @@
 package general;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import general.statistics.ControlVariateStatistics;
+import general.statistics.QuantileSketch;
+import general.statistics.SummaryStatistics;
 
 /**
  * The main class of the template. <code>Simulation</code> allows the user to run multiple {@link Replication} instances and compute the simulation 
  * estimates of the performance measures. Furthermore it is possible to print the results to the {@link OutputStream} of choice, be it the standard 
  * {@link System#out} or one that writes to a file. 
  * 
+ * Every replication <code>i</code> is seeded through {@link SystemState#seedReplication(long)}, so the estimates only depend on the
+ * number of replications and the seed of the system state. When the simulation is constructed with a factory for replications,
+ * {@link #run(long, int)} distributes the replications over multiple threads and produces exactly the same estimates as {@link #run(long)}.
+ * 
+ * The performance measures of the replications are not stored. Every block of 32 consecutive replications collects 
+ * them in a {@link SummaryStatistics} per measure, and the blocks are merged in the order of their first replication. The memory 
+ * used by a simulation therefore does not grow with the number of replications. To keep the values of every replication, 
+ * pass them to a {@link ReplicationSink}, such as a {@link ColumnarStore}, with {@link #setReplicationSink(ReplicationSink)}.
+ * 
+ * Performance measures whose expectation is known can be added as control variates with {@link #addControlVariate(PerformanceMeasure, double)}. 
+ * The estimates of the other performance measures are then adjusted by regression on the control variates, see {@link ControlVariateStatistics}.
+ *
+ * A long run can write checkpoints to a file, see {@link #setCheckpoint(Path, long)}. As every replication is seeded by its 
+ * index, the merged statistics and the number of merged blocks are all that is needed to continue the run, and 
+ * {@link #resume()} does so with exactly the estimates of a run that was never interrupted.
+ *
  * @author Nemanja Milovanovic
  *
  */
 public class Simulation<S extends SystemState<S>> {
 
+	/**
+	 * Number of consecutive replications that a worker thread runs before it picks up new work.
+	 */
+	private static final int BLOCK_SIZE = 32;
+
 	private List<PerformanceMeasure<S>> measures;
 	private Replication<S> replication;
+	private final Supplier<? extends Replication<S>> factory;
 	private Status status;
+	private long replications;
+	private boolean precisionReached;
+	private double[] quantiles = new double[0];
+	private boolean antithetic;
+	private final List<PerformanceMeasure<S>> controls = new ArrayList<>();
+	private double[] expectations = new double[0];
+	private Path checkpoint;
+	private long checkpointInterval;
+	private ReplicationSink sink;
 	
 	public Simulation(Replication<S> replication) {
 		this(replication, replication.getSystemState().getAutomaticMeasures());
@@ -27,6 +89,37 @@ public class Simulation<S extends SystemState<S>> {
 	public Simulation(
 			Replication<S> replication, 
 			List<PerformanceMeasure<S>> measures) {
+		this(null, replication, measures);
+	}
+
+	/**
+	 * Creates a simulation that can run its replications in parallel. The factory is called once to obtain the replication
+	 * that determines the seed and the performance measures, and afterwards once for every additional worker thread.
+	 * Every call should return a new {@link Replication} with its own {@link SystemState}, constructed with the same parameters and seed.
+	 *
+	 * @param factory	Supplier of independent replications
+	 */
+	public Simulation(Supplier<? extends Replication<S>> factory) {
+		this(factory, factory.get());
+	}
+
+	public Simulation(
+			Supplier<? extends Replication<S>> factory,
+			List<PerformanceMeasure<S>> measures) {
+		this(factory, factory.get(), measures);
+	}
+
+	private Simulation(
+			Supplier<? extends Replication<S>> factory,
+			Replication<S> replication) {
+		this(factory, replication, replication.getSystemState().getAutomaticMeasures());
+	}
+
+	private Simulation(
+			Supplier<? extends Replication<S>> factory,
+			Replication<S> replication,
+			List<PerformanceMeasure<S>> measures) {
+		this.factory = factory;
 		this.replication = replication;
 		// Copy and sort the performance measures to make output always consistent
 		this.measures = new ArrayList<>(measures);
@@ -39,34 +132,466 @@ public class Simulation<S extends SystemState<S>> {
 	 * @param n Number of simulation iterations
 	 */
 	public void run(long n) {
-		if (n < 1) {
-			status = Status.FAILED;
-			throw new IllegalArgumentException("Number of iterations must be >= 1");
+		runSerial(start(n, null));
+	}
+
+	/**
+	 * Runs the simulation <code>n</code> times using <code>parallelism</code> worker threads.
+	 * The estimates are identical to those of {@link #run(long)}, regardless of the number of threads.
+	 *
+	 * @param n				Number of simulation iterations
+	 * @param parallelism	Number of worker threads
+	 */
+	public void run(long n, int parallelism) {
+		checkParallelism(parallelism);
+		if (parallelism == 1) {
+			run(n);
+			return;
+		}
+		withPool(parallelism, executor -> run(n, executor));
+	}
+
+	/**
+	 * Runs the simulation <code>n</code> times on the threads of <code>executor</code>. Every thread that picks up work
+	 * uses a {@link Replication} of its own, obtained from the factory passed to the constructor, and claims blocks of 
+	 * replications until none are left. The estimates are identical to those of {@link #run(long)}, regardless of the 
+	 * number of threads.
+	 *
+	 * @param n			Number of simulation iterations
+	 * @param executor	Executor that runs the replications, it is not shut down afterwards
+	 */
+	public void run(long n, ExecutorService executor) {
+		checkFactory();
+		runParallel(start(n, null), executor);
+	}
+	
+	/**
+	 * Runs replications until the estimates of the performance measures reach <code>target</code>, or until 
+	 * <code>maxReplications</code> replications have been run. The precision is checked after every block of 32 
+	 * replications, so the number of replications is a multiple of 32 unless the maximum is reached. 
+	 * Use {@link #isPrecisionReached()} to find out which of the two happened.
+	 * 
+	 * @param target			Precision of the estimates
+	 * @param maxReplications	Largest number of replications to run
+	 * @return Returns the number of replications that were run
+	 */
+	public long run(PrecisionTarget target, long maxReplications) {
+		checkTarget(target);
+		runSerial(start(maxReplications, target));
+		return replications;
+	}
+	
+	/**
+	 * Like {@link #run(PrecisionTarget, long)}, but uses <code>parallelism</code> worker threads. The precision is 
+	 * checked in the same order as in a run on one thread, so the number of replications and the estimates do not 
+	 * depend on the number of threads. Replications that were started after the target was reached are discarded.
+	 * 
+	 * @param target			Precision of the estimates
+	 * @param maxReplications	Largest number of replications to run
+	 * @param parallelism		Number of worker threads
+	 * @return Returns the number of replications that were used for the estimates
+	 */
+	public long run(PrecisionTarget target, long maxReplications, int parallelism) {
+		checkParallelism(parallelism);
+		if (parallelism == 1) {
+			return run(target, maxReplications);
+		}
+		withPool(parallelism, executor -> run(target, maxReplications, executor));
+		return replications;
+	}
+
+	/**
+	 * Like {@link #run(PrecisionTarget, long, int)}, but runs the replications on the threads of <code>executor</code>.
+	 * 
+	 * @param target			Precision of the estimates
+	 * @param maxReplications	Largest number of replications to run
+	 * @param executor			Executor that runs the replications, it is not shut down afterwards
+	 * @return Returns the number of replications that were used for the estimates
+	 */
+	public long run(PrecisionTarget target, long maxReplications, ExecutorService executor) {
+		checkFactory();
+		checkTarget(target);
+		runParallel(start(maxReplications, target), executor);
+		return replications;
+	}
+	
+	/**
+	 * Prepares a run of at most <code>n</code> replications, whose blocks are then run with {@link #runBlock(Replication, long, long)} 
+	 * and passed to {@link Accumulator#complete(long, Block)}, and which ends with {@link #finish(Accumulator)}. 
+	 * {@link ParameterSweep} uses these steps to run the blocks of many simulations on one pool of threads.
+	 * 
+	 * @param target	Precision target, or <code>null</code> to run all <code>n</code> replications
+	 */
+	Accumulator start(long n, PrecisionTarget target) {
+		checkIterations(n);
+		startSink(0, n);
+		return new Accumulator(n, target);
+	}
+	
+	private void startSink(long from, long n) {
+		if (sink != null) {
+			sink.start(Arrays.asList(measureNames()), replication.getSystemState().getSeed(), antithetic, from, n);
+		}
+	}
+	
+	/**
+	 * @return Returns the replication this simulation was constructed with
+	 */
+	Replication<S> getReplication() {
+		return replication;
+	}
+	
+	/**
+	 * @return Returns a new replication from the factory of this simulation
+	 */
+	Replication<S> createReplication() {
+		checkFactory();
+		return factory.get();
+	}
+	
+	private void runSerial(Accumulator accumulator) {
+		try {
+			for (long block = accumulator.merged; block < accumulator.limit; block++) {
+				accumulator.complete(block, runBlock(replication, block, accumulator.n));
+			}
+		} catch (RuntimeException | Error ex) {
+			fail(accumulator, ex);
+			throw ex;
 		}
+		finish(accumulator);
+	}
+	
+	private void runParallel(Accumulator accumulator, ExecutorService executor) {
+		AtomicLong nextBlock = new AtomicLong(accumulator.merged);
+		Queue<Replication<S>> idle = new ConcurrentLinkedQueue<>();
+		idle.add(replication);
+
+		long workers = Math.min(accumulator.limit - accumulator.merged, parallelism(executor));
+		WorkerGate gate = new WorkerGate();
+		List<Future<?>> tasks = new ArrayList<>();
+		for (long w = 0; w < workers; w++) {
+			tasks.add(executor.submit(() -> {
+				if (!gate.enter()) {
+					return;
+				}
+				Replication<S> worker = idle.poll();
+				try {
+					if (worker == null) {
+						worker = factory.get();
+					}
+					long block;
+					while (!Thread.currentThread().isInterrupted() 
+							&& (block = nextBlock.getAndIncrement()) < accumulator.limit) {
+						accumulator.complete(block, runBlock(worker, block, accumulator.n));
+					}
+				}
+				finally {
+					if (worker != null) {
+						idle.add(worker);
+					}
+					gate.leave();
+				}
+			}));
+		}
+		try {
+			await(tasks);
+		} catch (RuntimeException | Error ex) {
+			gate.close();
+			fail(accumulator, ex);
+			throw ex;
+		}
+		finish(accumulator);
+	}
+
+	void finish(Accumulator accumulator) {
+		// compute estimations of performance measures
+		computePerformanceMeasureEstimates(accumulator);
+		replications = accumulator.getReplications();
+		precisionReached = accumulator.reached;
+		accumulator.saveCheckpoint();
 		
-		// initialize matrix of performance measures
-		List<List<Double>> measures = new ArrayList<>();
+		status = Status.SUCCESS;
+		if (sink != null) {
+			sink.finish(replications);
+		}
+	}
 		
-		long currentIteration = 0;
-		while (currentIteration < n) {
-			replication.reset();
-			replication.initialize();
-			replication.run();
+	/**
+	 * Ends a run that failed with <code>cause</code>, and lets the sink close its output. When the run used several 
+	 * threads, the {@link WorkerGate} of the run must have been closed first.
+	 */
+	void fail(Accumulator accumulator, Throwable cause) {
+		status = Status.FAILED;
+		if (sink != null) {
+			try {
+				sink.finish(accumulator.getReplications());
+			} catch (RuntimeException ex) {
+				cause.addSuppressed(ex);
+			}
+		}
+	}
+	
+	/**
+	 * Makes the following runs write a checkpoint to <code>file</code> at most every <code>interval</code> seconds, and 
+	 * once more at the end of the run. A checkpoint holds the statistics of the blocks of replications that have been merged 
+	 * so far, together with the number of replications and the precision target of the run. The file is first written 
+	 * under a temporary name and then renamed, so a crash while writing leaves the previous checkpoint intact.
+	 * 
+	 * Replications that were running when the checkpoint was written are not part of it and are run again by 
+	 * {@link #resume()}; the state of a replication in progress is never saved.
+	 * 
+	 * @param file		File to write the checkpoints to, or <code>null</code> to stop writing checkpoints
+	 * @param interval	Smallest number of seconds between two checkpoints, 0 to write one after every merged block
+	 */
+	public void setCheckpoint(Path file, long interval) {
+		if (interval < 0) {
+			throw new IllegalArgumentException("Checkpoint interval must be >= 0");
+		}
+		checkpoint = file;
+		checkpointInterval = interval;
+	}
+	
+	/**
+	 * 
+	 * @return Returns the file that checkpoints are written to, or <code>null</code> if none are written
+	 */
+	public Path getCheckpoint() {
+		return checkpoint;
+	}
+	
+	/**
+	 * Continues the run that wrote the file set with {@link #setCheckpoint(Path, long)}, from the first block of 
+	 * replications that is not in it, with the number of replications and the precision target of that run. The 
+	 * simulation must be set up as it was for that run: the same model and seed, performance measures, control variates, 
+	 * antithetic replications and reported quantiles. The estimates are identical to those of the run had it not been 
+	 * interrupted, and checkpoints continue to be written to the same file.
+	 * 
+	 * @return Returns the number of replications that were used for the estimates
+	 */
+	public long resume() {
+		runSerial(restore());
+		return replications;
+	}
+	
+	/**
+	 * Like {@link #resume()}, but uses <code>parallelism</code> worker threads.
+	 * 
+	 * @param parallelism	Number of worker threads
+	 * @return Returns the number of replications that were used for the estimates
+	 */
+	public long resume(int parallelism) {
+		checkParallelism(parallelism);
+		if (parallelism == 1) {
+			return resume();
+		}
+		withPool(parallelism, executor -> resume(executor));
+		return replications;
+	}
+	
+	/**
+	 * Like {@link #resume()}, but runs the replications on the threads of <code>executor</code>.
+	 * 
+	 * @param executor	Executor that runs the replications, it is not shut down afterwards
+	 * @return Returns the number of replications that were used for the estimates
+	 */
+	public long resume(ExecutorService executor) {
+		checkFactory();
+		runParallel(restore(), executor);
+		return replications;
+	}
+	
+	private Accumulator restore() {
+		if (checkpoint == null) {
+			status = Status.FAILED;
+			throw new IllegalStateException("No checkpoint file has been set.");
+		}
+		Checkpoint saved;
+		try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(checkpoint)))) {
+			saved = (Checkpoint) in.readObject();
+		} catch (IOException ex) {
+			status = Status.FAILED;
+			throw new UncheckedIOException("Could not read checkpoint " + checkpoint, ex);
+		} catch (ClassNotFoundException | ClassCastException ex) {
+			status = Status.FAILED;
+			throw new IllegalStateException(checkpoint + " is not a checkpoint of a simulation", ex);
+		}
+		String mismatch = null;
+		if (!Arrays.equals(saved.measures, measureNames())) {
+			mismatch = "performance measures " + Arrays.toString(saved.measures);
+		}
+		else if (saved.seed != replication.getSystemState().getSeed()) {
+			mismatch = "seed " + saved.seed;
+		}
+		else if (saved.antithetic != antithetic) {
+			mismatch = (saved.antithetic ? "" : "no ") + "antithetic replications";
+		}
+		else if (!Arrays.equals(saved.expectations, expectations)) {
+			mismatch = "control variates with expectations " + Arrays.toString(saved.expectations);
+		}
+		else if ((saved.total.sketches != null) != (quantiles.length > 0)) {
+			mismatch = saved.total.sketches != null ? "reported quantiles" : "no reported quantiles";
+		}
+		if (mismatch != null) {
+			status = Status.FAILED;
+			throw new IllegalStateException("Checkpoint " + checkpoint + " was written by a simulation with " + mismatch);
+		}
+		startSink(replicationsIn(saved.merged, saved.n), saved.n);
+		return new Accumulator(saved);
+	}
+	
+	private String[] measureNames() {
+		return measures.stream().map(PerformanceMeasure::getName).toArray(String[]::new);
+	}
+	
+	/**
+	 * Switches antithetic replications on or off for the following runs. With antithetic replications, every replication 
+	 * is run twice from the same seed: once normally, and once with all random numbers complemented, see 
+	 * {@link SystemState#setAntithetic(boolean)}. The two values of each performance measure are averaged into one sample, 
+	 * so the number of replications passed to <code>run</code>, and reported by {@link #getReplications()}, is the number 
+	 * of pairs, and the standard errors correctly account for the correlation within the pairs. As the outcomes of a pair 
+	 * are usually negatively correlated, a pair is worth more than two independent replications.
+	 * 
+	 * This requires that the model draws all of its random numbers from the streams of its {@link SystemState}.
+	 * 
+	 * @param antithetic	True to run antithetic pairs of replications
+	 */
+	public void setAntithetic(boolean antithetic) {
+		this.antithetic = antithetic;
+	}
+	
+	/**
+	 * 
+	 * @return Returns true if the simulation runs antithetic pairs of replications
+	 */
+	public boolean isAntithetic() {
+		return antithetic;
+	}
+	
+	/**
+	 * Adds a control variate for the following runs: a quantity that is computed from every replication like a performance 
+	 * measure, and whose expectation is known, for example the number of arrivals, which follows from the arrival rates. 
+	 * The estimates of all performance measures become control variate estimates: the sample mean minus the regression 
+	 * coefficient times the deviation of the sample mean of the control variate from its expectation. The standard error 
+	 * shrinks accordingly when a measure is correlated with the control variates, and a {@link PrecisionTarget} is checked 
+	 * against the adjusted estimates. {@link PerformanceMeasure#getStatistics()} still returns the statistics of the 
+	 * unadjusted values. With antithetic replications, the control variate is averaged over a pair like the measures.
+	 * 
+	 * The expectation must be exact; an error in it biases every estimate. Use a few control variates that are strongly 
+	 * correlated with the measures, as every control variate costs a degree of freedom.
+	 * 
+	 * @param control		Quantity computed from the state at the end of a replication
+	 * @param expectation	Known expectation of the quantity
+	 */
+	public void addControlVariate(PerformanceMeasure<S> control, double expectation) {
+		if (Double.isNaN(expectation) || Double.isInfinite(expectation)) {
+			throw new IllegalArgumentException("The expectation of a control variate must be finite");
+		}
+		controls.add(control);
+		expectations = Arrays.copyOf(expectations, expectations.length + 1);
+		expectations[expectations.length - 1] = expectation;
+	}
+	
+	/**
+	 * Removes all control variates, so the following runs produce plain sample means.
+	 */
+	public void clearControlVariates() {
+		controls.clear();
+		expectations = new double[0];
+	}
+	
+	/**
+	 * Passes the values of the performance measures of every replication of the following runs to <code>sink</code>, 
+	 * in addition to collecting their statistics.
+	 * 
+	 * @param sink	Sink of the values, or <code>null</code> to stop passing them on
+	 */
+	public void setReplicationSink(ReplicationSink sink) {
+		this.sink = sink;
+	}
+	
+	/**
+	 * 
+	 * @return Returns the sink that the values of the replications are passed to, or <code>null</code> if there is none
+	 */
+	public ReplicationSink getReplicationSink() {
+		return sink;
+	}
+	
+	/**
+	 * Creates a sink that ignores the replications and prints the estimates with {@link #printEstimates(PrintStream)} 
+	 * at the end of every successful run, so the estimates can be one of the outputs of a {@link ResultExporter}.
+	 * 
+	 * @param out	Stream to print the estimates to
+	 * @return Returns a sink that prints the estimates of this simulation
+	 */
+	public ReplicationSink createEstimatePrinter(PrintStream out) {
+		return createEstimatePrinter(() -> printEstimates(out));
+	}
+	
+	/**
+	 * Like {@link #createEstimatePrinter(PrintStream)}, but prints to a writer, which is flushed afterwards.
+	 * 
+	 * @param out	Writer to print the estimates to
+	 * @return Returns a sink that prints the estimates of this simulation
+	 */
+	public ReplicationSink createEstimatePrinter(PrintWriter out) {
+		return createEstimatePrinter(() -> {
+			printEstimates(out);
+			out.flush();
+		});
+	}
+	
+	private ReplicationSink createEstimatePrinter(Runnable print) {
+		return new ReplicationSink() {
+			
+			@Override
+			public void start(List<String> measures, long seed, boolean antithetic, long from, long replications) {
+			}
 			
-			if (replication.getStatus() == Status.FAILED) {
-				throw new IllegalStateException("Replication #" + (currentIteration + 1) + " failed.");
+			@Override
+			public void accept(long replication, long seed, Status status, long nanos, double[] values) {
 			}
 			
-			// compute the performance measures
-			List<Double> rowMeasures = computePerformanceMeasures();
-			measures.add(rowMeasures);
-			currentIteration++;
+			@Override
+			public void finish(long replications) {
+				if (status == Status.SUCCESS) {
+					print.run();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Makes every performance measure keep a {@link QuantileSketch} of its values in the replications of the following runs,
+	 * and adds the given quantiles to the output of {@link #printEstimates()}. Like the statistics, the sketches are kept per 
+	 * block of replications and merged in the order of the blocks, so the quantiles do not depend on the number of threads.
+	 * 
+	 * @param probabilities	Probabilities of the quantiles to report, such as 0.05 and 0.95, or none to stop keeping sketches
+	 */
+	public void setReportedQuantiles(double... probabilities) {
+		for (double p : probabilities) {
+			if (!(p >= 0 && p <= 1)) {
+				throw new IllegalArgumentException("Probability must be between 0 and 1");
+			}
 		}
-		
-		// compute estimations of performance measures
-		computePerformanceMeasureEstimates(measures);
-		
-		status = Status.SUCCESS;
+		quantiles = probabilities.clone();
+	}
+	
+	/**
+	 * 
+	 * @return Returns the number of replications the estimates of the last run are based on
+	 */
+	public long getReplications() {
+		return replications;
+	}
+	
+	/**
+	 * 
+	 * @return Returns true if the last run stopped because it reached its {@link PrecisionTarget}, and false if 
+	 * it had no target or ran out of replications first
+	 */
+	public boolean isPrecisionReached() {
+		return precisionReached;
 	}
 	
 	/**
@@ -77,40 +602,448 @@ public class Simulation<S extends SystemState<S>> {
 		return status;
 	}
 	
-	private List<Double> computePerformanceMeasures() {
-		List<Double> estimates = new ArrayList<>();
-		for (PerformanceMeasure<S> measure : measures) {
-			S state = replication.getSystemState();
-			double estimate = measure.compute(state);
-			estimates.add(estimate);
+	private void checkParallelism(int parallelism) {
+		if (parallelism < 1) {
+			status = Status.FAILED;
+			throw new IllegalArgumentException("Parallelism must be >= 1");
+		}
+	}
+	
+	private void checkFactory() {
+		if (factory == null) {
+			status = Status.FAILED;
+			throw new IllegalStateException("Running replications in parallel requires a Simulation that was constructed with a replication factory.");
 		}
-		return estimates;
 	}
 	
-	private void computePerformanceMeasureEstimates(List<List<Double>> estimates) {
-		List<Double> first = estimates.get(0);
-		int nrMeasures = first.size();
-		for (int j = 0; j < nrMeasures; j++) {
-			double sum = 0;
-			for (int i = 0; i < estimates.size(); i++) {
-				double d = estimates.get(i).get(j);
-				sum += d;
+	void checkTarget(PrecisionTarget target) {
+		if (target == null) {
+			status = Status.FAILED;
+			throw new IllegalArgumentException("Precision target cannot be null.");
+		}
+		for (String name : target.getMeasures()) {
+			if (measures.stream().noneMatch(pm -> pm.getName().equals(name))) {
+				status = Status.FAILED;
+				throw new IllegalArgumentException("Precision target refers to unknown performance measure '" + name + "'");
 			}
-			double mean = sum/estimates.size();
-			
-			sum = 0;
-			for (int i = 0; i < estimates.size(); i++) {
-				double d = estimates.get(i).get(j);
-				sum += Math.pow(d - mean, 2);
+		}
+	}
+	
+	private void checkIterations(long n) {
+		if (n < 1) {
+			status = Status.FAILED;
+			throw new IllegalArgumentException("Number of iterations must be >= 1");
+		}
+	}
+
+	/**
+	 * @return Returns the number of replications in the first <code>blocks</code> blocks of a run of <code>n</code> replications
+	 */
+	static long replicationsIn(long blocks, long n) {
+		// blocks * BLOCK_SIZE overflows for all blocks of a run of nearly Long.MAX_VALUE replications
+		return blocks > (n - 1) / BLOCK_SIZE ? n : blocks * BLOCK_SIZE;
+	}
+
+	static void withPool(int parallelism, Consumer<ExecutorService> body) {
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+		try {
+			body.accept(executor);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Keeps track of the worker tasks of a run that are running blocks. When a run fails, the other tasks are cancelled, 
+	 * but a task that is running finishes its current replication, and a task can even start after it was cancelled. 
+	 * Closing the gate stops tasks from starting and waits for the running ones, so that no replication reaches the 
+	 * {@link ReplicationSink} after it has been finished.
+	 */
+	static final class WorkerGate {
+		
+		private int running;
+		private boolean closed;
+		
+		/**
+		 * @return Returns false if the gate is closed and the task should not run
+		 */
+		synchronized boolean enter() {
+			if (closed) {
+				return false;
 			}
-			double std = Math.sqrt(sum/(estimates.size()-1));
-			std = std/Math.sqrt(estimates.size());
-			
+			running++;
+			return true;
+		}
+		
+		synchronized void leave() {
+			running--;
+			notifyAll();
+		}
+		
+		/**
+		 * Stops tasks from entering, and waits until no task is running any more.
+		 */
+		synchronized void close() {
+			closed = true;
+			boolean interrupted = false;
+			while (running > 0) {
+				try {
+					wait();
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return Returns the number of tasks that <code>executor</code> runs at the same time, as far as it can be determined
+	 */
+	static int parallelism(ExecutorService executor) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			return Math.min(pool.getMaximumPoolSize(), Math.max(pool.getCorePoolSize(), processors));
+		}
+		if (executor instanceof ForkJoinPool) {
+			return ((ForkJoinPool) executor).getParallelism();
+		}
+		return processors;
+	}
+
+	private void await(List<Future<?>> blocks) {
+		try {
+			for (Future<?> block : blocks) {
+				block.get();
+			}
+		} catch (InterruptedException ex) {
+			cancel(blocks);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the replications to finish.", ex);
+		} catch (ExecutionException ex) {
+			cancel(blocks);
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			else {
+				throw new IllegalStateException("Unexpected exception while running replications.", cause);
+			}
+		}
+	}
+
+	private void cancel(List<Future<?>> blocks) {
+		status = Status.FAILED;
+		for (Future<?> block : blocks) {
+			block.cancel(true);
+		}
+	}
+
+	/**
+	 * Runs the replications of block number <code>block</code> and collects their performance measures.
+	 */
+	Block runBlock(Replication<S> replication, long block, long n) {
+		Block result = new Block(measures.size(), quantiles.length > 0, controls.size());
+		SummaryStatistics[] statistics = result.statistics;
+		QuantileSketch[] sketches = result.sketches;
+		double[] values = new double[statistics.length];
+		double[] complements = antithetic ? new double[statistics.length] : null;
+		double[] controlValues = new double[controls.size()];
+		double[] controlComplements = new double[controls.size()];
+		long from = block * BLOCK_SIZE;
+		long to = from + Math.min(BLOCK_SIZE, n - from);
+		for (long i = from; i < to; i++) {
+			// a cancelled worker stops after its current replication
+			if (Thread.currentThread().isInterrupted()) {
+				throw new IllegalStateException("Interrupted while running replications.");
+			}
+			long begin = sink == null ? 0 : System.nanoTime();
+			runReplication(replication, i, false, values, controlValues);
+			Status outcome = replication.getStatus();
+			if (antithetic) {
+				runReplication(replication, i, true, complements, controlComplements);
+				for (int j = 0; j < values.length; j++) {
+					values[j] = (values[j] + complements[j]) / 2;
+				}
+				for (int k = 0; k < controlValues.length; k++) {
+					controlValues[k] = (controlValues[k] + controlComplements[k]) / 2;
+				}
+			}
+			if (result.regression != null) {
+				result.regression.add(values, controlValues);
+			}
+			if (sink != null) {
+				sink.accept(i, replication.getSystemState().getReplicationSeed(), outcome, System.nanoTime() - begin, values);
+			}
+
+			for (int j = 0; j < statistics.length; j++) {
+				double value = values[j];
+				statistics[j].add(value);
+				if (sketches != null) {
+					sketches[j].add(value);
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Runs replication number <code>i</code> and stores its performance measures in <code>values</code>, and its 
+	 * control variates in <code>controlValues</code>.
+	 */
+	private void runReplication(Replication<S> replication, long i, boolean complement, double[] values, double[] controlValues) {
+		S state = replication.getSystemState();
+		state.seedReplication(i);
+		state.setAntithetic(complement);
+		replication.reset();
+		replication.initialize();
+		replication.run();
+
+		if (replication.getStatus() == Status.FAILED) {
+			throw new IllegalStateException("Replication #" + (i + 1) + (complement ? " (antithetic)" : "") + " failed.");
+		}
+
+		// compute the performance measures
+		for (int j = 0; j < values.length; j++) {
+			values[j] = measures.get(j).compute(state);
+		}
+		for (int k = 0; k < controlValues.length; k++) {
+			controlValues[k] = controls.get(k).compute(state);
+		}
+	}
+	
+	private void computePerformanceMeasureEstimates(Accumulator accumulator) {
+		Block total = accumulator.total;
+		for (int j = 0; j < measures.size(); j++) {
 			PerformanceMeasure<S> pm = measures.get(j);
-			pm.setMean(mean);
-			pm.setStandardError(std);
+			pm.setStatistics(total.statistics[j]);
+			pm.setQuantileSketch(total.sketches == null ? null : total.sketches[j]);
+			if (total.regression != null) {
+				pm.setMean(total.regression.getAdjustedMean(j, expectations));
+				pm.setStandardError(total.regression.getAdjustedStandardError(j, expectations));
+			}
+		}
+	}
+	
+	/**
+	 * The statistics, and optionally the quantile sketches and the co-moments with the control variates, of the 
+	 * performance measures in a block of replications.
+	 */
+	static final class Block implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final SummaryStatistics[] statistics;
+		private final QuantileSketch[] sketches;
+		private final ControlVariateStatistics regression;
+		
+		Block(int measures, boolean keepSketches, int controls) {
+			statistics = new SummaryStatistics[measures];
+			sketches = keepSketches ? new QuantileSketch[measures] : null;
+			regression = controls > 0 ? new ControlVariateStatistics(measures, controls) : null;
+			for (int j = 0; j < measures; j++) {
+				statistics[j] = new SummaryStatistics();
+				if (keepSketches) {
+					sketches[j] = new QuantileSketch();
+				}
+			}
+		}
+		
+		void merge(Block other) {
+			for (int j = 0; j < statistics.length; j++) {
+				statistics[j].merge(other.statistics[j]);
+				if (sketches != null) {
+					sketches[j].merge(other.sketches[j]);
+				}
+			}
+			if (regression != null) {
+				regression.merge(other.regression);
+			}
 		}
 	}
+
+	/**
+	 * Merges the statistics of the blocks in the order of the blocks, regardless of the order in which they complete. 
+	 * Only the blocks that completed before an earlier block did are kept in memory.
+	 * 
+	 * With a {@link PrecisionTarget}, the target is checked after every merged block. Once it is reached, no more blocks 
+	 * are handed out, and blocks after the last merged one are ignored.
+	 */
+	final class Accumulator {
+		
+		private final long n;
+		private final long blocks;
+		private final Block total;
+		private final Map<Long, Block> pending = new HashMap<>();
+		private final PrecisionTarget target;
+		private long merged;
+		private volatile long limit;
+		private boolean reached;
+		private final Path checkpoint = Simulation.this.checkpoint;
+		private final ReplicationSink sink = Simulation.this.sink;
+		private final long checkpointInterval = TimeUnit.SECONDS.toNanos(Simulation.this.checkpointInterval);
+		private long lastCheckpoint = System.nanoTime();
+		private long checkpointed;
+		
+		Accumulator(long n, PrecisionTarget target) {
+			this.n = n;
+			this.target = target;
+			// n + BLOCK_SIZE - 1 overflows when there is no real maximum, such as Long.MAX_VALUE
+			blocks = n / BLOCK_SIZE + (n % BLOCK_SIZE == 0 ? 0 : 1);
+			limit = blocks;
+			total = new Block(measures.size(), quantiles.length > 0, controls.size());
+		}
+		
+		/**
+		 * Continues the run of a checkpoint.
+		 */
+		Accumulator(Checkpoint saved) {
+			n = saved.n;
+			target = saved.target;
+			blocks = n / BLOCK_SIZE + (n % BLOCK_SIZE == 0 ? 0 : 1);
+			total = saved.total;
+			merged = saved.merged;
+			reached = saved.reached;
+			limit = reached ? merged : blocks;
+			checkpointed = merged;
+		}
+	
+		synchronized void complete(long block, Block result) {
+			if (block >= limit) {
+				return;
+			}
+			pending.put(block, result);
+			Block next;
+			while ((next = pending.remove(merged)) != null) {
+				total.merge(next);
+				merged++;
+				if (target != null && isTargetReached()) {
+					reached = true;
+					limit = merged;
+					pending.clear();
+					return;
+				}
+			}
+			if (checkpoint != null && merged > checkpointed && System.nanoTime() - lastCheckpoint >= checkpointInterval) {
+				saveCheckpoint();
+			}
+		}
+		
+		/**
+		 * Writes the merged blocks to the checkpoint file, if there is one.
+		 */
+		synchronized void saveCheckpoint() {
+			if (checkpoint == null) {
+				return;
+			}
+			Checkpoint saved = new Checkpoint(n, target, merged, reached, total, measureNames(), 
+					replication.getSystemState().getSeed(), antithetic, expectations);
+			// the replications of the merged blocks must be in the output of the sink before the checkpoint skips them
+			if (sink != null) {
+				sink.flush();
+			}
+			Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+			try {
+				try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+					out.writeObject(saved);
+				}
+				try {
+					Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException ex) {
+					Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Could not write checkpoint " + checkpoint, ex);
+			}
+			lastCheckpoint = System.nanoTime();
+			checkpointed = merged;
+		}
+		
+		private boolean isTargetReached() {
+			for (int j = 0; j < measures.size(); j++) {
+				if (target.appliesTo(measures.get(j)) && !isReached(j)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		private boolean isReached(int j) {
+			ControlVariateStatistics regression = total.regression;
+			if (regression == null) {
+				return target.isReached(total.statistics[j]);
+			}
+			return target.isReached(regression.getAdjustedMean(j, expectations), 
+					regression.getAdjustedStandardError(j, expectations), regression.getDegreesOfFreedom());
+		}
+		
+		synchronized long getReplications() {
+			return replicationsIn(merged, n);
+		}
+		
+		/**
+		 * @return Returns true if block number <code>block</code> still has to be run
+		 */
+		boolean isNeeded(long block) {
+			return block >= merged && block < limit;
+		}
+		
+		/**
+		 * @return Returns the number of blocks of a run without precision target
+		 */
+		long getBlocks() {
+			return blocks;
+		}
+		
+		/**
+		 * @return Returns the largest number of replications of the run
+		 */
+		long getMaxReplications() {
+			return n;
+		}
+	}
+	
+	/**
+	 * The merged statistics of a run, together with what is needed to check that it is resumed by the same simulation.
+	 */
+	private static final class Checkpoint implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final long n;
+		private final PrecisionTarget target;
+		private final long merged;
+		private final boolean reached;
+		private final Block total;
+		private final String[] measures;
+		private final long seed;
+		private final boolean antithetic;
+		private final double[] expectations;
+		
+		Checkpoint(long n, PrecisionTarget target, long merged, boolean reached, Block total, String[] measures, 
+				long seed, boolean antithetic, double[] expectations) {
+			this.n = n;
+			this.target = target;
+			this.merged = merged;
+			this.reached = reached;
+			this.total = total;
+			this.measures = measures;
+			this.seed = seed;
+			this.antithetic = antithetic;
+			this.expectations = expectations;
+		}
+	}
+	
+	public List<PerformanceMeasure<S>> getPerformanceMeasures() {
+		return new ArrayList<>(measures);
+	}
 	
 	public void printEstimates() {
 		PrintWriter pw = new PrintWriter(System.out);
@@ -120,13 +1053,31 @@ public class Simulation<S extends SystemState<S>> {
 	
 	public void printEstimates(PrintStream out) {
 		for (int i = 0; i < measures.size(); i++) {
-			out.println(measures.get(i));
+			out.println(format(measures.get(i)));
 		}
 	}
 	
 	public void printEstimates(PrintWriter out) {
 		for (int i = 0; i < measures.size(); i++) {
-			out.println(measures.get(i));
+			out.println(format(measures.get(i)));
+		}
+	}
+	
+	/**
+	 * @return Returns the estimate of a performance measure, followed by the quantiles set with {@link #setReportedQuantiles(double...)}
+	 */
+	private String format(PerformanceMeasure<S> pm) {
+		if (quantiles.length == 0 || !pm.hasQuantileSketch()) {
+			return pm.toString();
+		}
+		StringBuilder sb = new StringBuilder(pm.toString()).append(" [");
+		for (int i = 0; i < quantiles.length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			String percent = BigDecimal.valueOf(quantiles[i]).movePointRight(2).stripTrailingZeros().toPlainString();
+			sb.append(percent).append("%: ").append(pm.getQuantile(quantiles[i]));
 		}
+		return sb.append("]").toString();
 	}
 }
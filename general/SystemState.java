@@ -4,19 +4,22 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.PriorityQueue;
-import java.util.Random;
-import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 
 import general.annotations.AutoCounter;
 import general.annotations.AutoMeasure;
-import general.automagic.ConsumerEvent;
+import general.automagic.DoubleConsumerEvent;
+import general.automagic.EventPool;
 import general.automagic.ReflectivePerformanceMeasure;
 import general.automagic.RunnableEvent;
+import general.automagic.StateWiring;
+import general.automagic.StateWirings;
+import general.random.RandomStream;
 
 /**
  * Basic skeleton for a system state. Already contains the simulation clock, the statistical counters, and an event queue. 
@@ -30,12 +33,25 @@ public abstract class SystemState<S extends SystemState<S>> {
 
 	private double currentTime;
 	private double timeHorizon;
-	private final PriorityQueue<Event<S>> queue;
+	private final EventQueue<S> queue;
+	private final EventPool<DoubleConsumerEvent<S>> consumerEvents;
+	private final EventPool<RunnableEvent<S>> runnableEvents;
 	
 	private final List<Counter> counters;
-	private final Random random;
+	private final CounterBank bank;
+	private final TimeWeightedCounter[] timeWeighted;
+	private final Counter[] individuallyReset;
+	private WarmupDetector warmupDetector;
+	private final RandomStream random;
+	private final Map<String, RandomStream> streams = new HashMap<>();
+	private final Map<String, Long> substreams = new HashMap<>();
+	private boolean antithetic;
+	private final long seed;
+	private long replicationSeed;
 
 	private Map<Field,Counter> autoCounters;
+	private final StateWiring<S> wiring;
+	private List<Counter> wiredCounters;
 	
 	public SystemState(double timeHorizon, long seed) {
 		this(timeHorizon, null, seed);
@@ -45,26 +61,65 @@ public abstract class SystemState<S extends SystemState<S>> {
 			double timeHorizon, 
 			List<Counter> counters, 
 			long seed) {
+		this(timeHorizon, counters, seed, new HeapEventQueue<>());
+	}
+	
+	/**
+	 * @param timeHorizon	Simulation time horizon
+	 * @param counters		Statistical counters, or <code>null</code> to use the fields annotated with {@link AutoCounter}
+	 * @param seed			Seed of the random number generator
+	 * @param queue			Event list implementation used to store the pending events
+	 */
+	public SystemState(
+			double timeHorizon, 
+			List<Counter> counters, 
+			long seed,
+			EventQueue<S> queue) {
+		if (queue == null) {
+			throw new IllegalArgumentException("Event queue cannot be null.");
+		}
 		currentTime = 0;
-		random = new Random(seed);
-		queue = new PriorityQueue<>();
+		random = new RandomStream(seed);
+		this.seed = seed;
+		this.replicationSeed = seed;
+		this.queue = queue;
+		consumerEvents = new EventPool<>(DoubleConsumerEvent::new);
+		runnableEvents = new EventPool<>(RunnableEvent::new);
+		wiring = StateWirings.find(getClass());
 		
 		this.timeHorizon = timeHorizon;
+		bank = new CounterBank();
 		if (counters == null) {
 			this.counters = getAutoCounters();
 		}
 		else {
 			this.counters = counters;
 		}
+		List<TimeWeightedCounter> integrated = new ArrayList<>();
+		List<Counter> individual = new ArrayList<>();
+		for (Counter c : this.counters) {
+			bank.add(c);
+			if (c instanceof TimeWeightedCounter) {
+				integrated.add((TimeWeightedCounter) c);
+			}
+			if (c.getClass() != Counter.class) {
+				individual.add(c);
+			}
+		}
+		timeWeighted = integrated.toArray(new TimeWeightedCounter[0]);
+		individuallyReset = individual.toArray(new Counter[0]);
 	}
 	
 	/**
-	 * Updates the simulation clock.
+	 * Updates the simulation clock, and integrates the levels of the {@link TimeWeightedCounter}s up to the new time.
 	 * 
 	 * @param newTime	New simulation clock time
 	 */
 	public void updateCurrentTime(double newTime) {
 		currentTime = newTime;
+		for (TimeWeightedCounter c : timeWeighted) {
+			c.advance(newTime);
+		}
 	}
 	
 	/**
@@ -79,7 +134,7 @@ public abstract class SystemState<S extends SystemState<S>> {
 	 * 
 	 * @return Returns the event queue
 	 */
-	public PriorityQueue<Event<S>> getQueue() {
+	public EventQueue<S> getQueue() {
 		return queue;
 	}
 	
@@ -92,35 +147,57 @@ public abstract class SystemState<S extends SystemState<S>> {
 		if (e == null) {
 			throw new IllegalArgumentException("Event cannot be null.");
 		}
+		checkTime(e.getTime());
+		queue.add(e);
+	}
+	
+	private void checkTime(double time) {
 		// TODO: is dit ook geen goed idee, overigens??
-		if (e.getTime() < getCurrentTime()) {
+		if (time < getCurrentTime()) {
 			throw new IllegalArgumentException("The simulation can not travel back in time.");
 		}
-		queue.add(e);
 	}
 	
 	/**
 	 * Convenience method that automatically creates an Event object based on a time
 	 * the Event should be executed, and an action that accepts the time of the event
-	 * as an input.
+	 * as an input. The time is passed as a primitive double, and the Event object is 
+	 * recycled once it has been processed, so scheduling and processing such an event
+	 * does not allocate. Methods like <code>void doArrival(double time)</code> can be
+	 * passed as a method reference; to reuse a <code>Consumer&lt;Double&gt; c</code>,
+	 * pass <code>c::accept</code>.
 	 * @param time the time at which the event takes place
 	 * @param action the action to perform at this time
 	 */
-	public void addEvent(double time, Consumer<Double> action) {
-		Event<S> event = new ConsumerEvent<S>(time, action);
-		addEvent(event);
+	public void addEvent(double time, DoubleConsumer action) {
+		checkTime(time);
+		DoubleConsumerEvent<S> event = consumerEvents.acquire();
+		event.reuse(time, action);
+		queue.add(event);
 	}
 	
 	/**
 	 * Convenience method that automatically creates an Event object based on a time
 	 * the Event should be executed, and an action that should be performed at that
-	 * time.
+	 * time. The Event object is recycled once it has been processed.
 	 * @param time the time at which the event should be executed
 	 * @param action the action to execute
 	 */
 	public void addEvent(double time, Runnable action) {
-		Event<S> event = new RunnableEvent<S>(time, action);
-		addEvent(event);
+		checkTime(time);
+		RunnableEvent<S> event = runnableEvents.acquire();
+		event.reuse(time, action);
+		queue.add(event);
+	}
+	
+	/**
+	 * Removes all pending events, and makes all recycled events available again. This takes constant time 
+	 * for the built-in event queues. {@link Replication#reset()} calls this method before every replication.
+	 */
+	public void clearEvents() {
+		queue.clear();
+		consumerEvents.clear();
+		runnableEvents.clear();
 	}
 	
 	/**
@@ -142,14 +219,163 @@ public abstract class SystemState<S extends SystemState<S>> {
 		return new ArrayList<>(counters);
 	}
 	
+	/**
+	 * The index of a counter in the bank is its position in {@link #getCounters()}.
+	 * @return Returns the bank that stores the values of all counters of this state
+	 */
+	public CounterBank getCounterBank() {
+		return bank;
+	}
+	
+	/**
+	 * Resets all counters to their initial values at once. Counters of a subclass of {@link Counter}, which may 
+	 * keep more than their value, are also reset one by one.
+	 */
+	public void resetCounters() {
+		bank.reset();
+		for (Counter c : individuallyReset) {
+			c.reset();
+		}
+	}
+	
+	/**
+	 * Attaches a detector that removes the warm-up period from the counters at the end of every replication.
+	 * 
+	 * @param detector	Warm-up detector, or <code>null</code> to keep the whole replication
+	 */
+	public void setWarmupDetector(WarmupDetector detector) {
+		this.warmupDetector = detector;
+	}
+	
+	/**
+	 * 
+	 * @return Returns the warm-up detector of this state, or <code>null</code> if there is none
+	 */
+	public WarmupDetector getWarmupDetector() {
+		return warmupDetector;
+	}
+	
 	/**
 	 * 
-	 * @return Returns the {@link Random} object used in this DES
+	 * @return Returns the random number stream used in this DES, which is the first substream of the stream of the current replication
 	 */
-	public Random getRandom() {
+	public RandomStream getRandom() {
 		return random;
 	}
 	
+	/**
+	 * Returns a random number stream that is only used for one purpose, such as the arrivals of one type of customer. 
+	 * It is a separate substream of the stream of the current replication, chosen by a hash of <code>purpose</code>, so it 
+	 * never overlaps with the streams of other purposes or other replications. Two configurations of a 
+	 * model that are simulated with the same seed therefore use exactly the same random numbers for the same purpose in 
+	 * the same replication, also when one of them draws more random numbers for other purposes. Comparing such configurations 
+	 * with these common random numbers gives much more precise estimates of their difference.
+	 * 
+	 * @param purpose	Name of the purpose of the stream
+	 * @return Returns the random number stream for <code>purpose</code>
+	 */
+	public RandomStream getRandom(String purpose) {
+		RandomStream stream = streams.get(purpose);
+		if (stream == null) {
+			long substream = substream(purpose);
+			stream = new RandomStream(random);
+			stream.advanceSubstreams(substream);
+			stream.setAntithetic(antithetic);
+			streams.put(purpose, stream);
+			substreams.put(purpose, substream);
+		}
+		return stream;
+	}
+	
+	/**
+	 * @return Returns the index of the substream of <code>purpose</code>, between 1 and <code>2^40</code>
+	 */
+	private long substream(String purpose) {
+		// FNV-1a, as String.hashCode() has only 32 bits
+		long hash = 0xCBF29CE484222325L;
+		for (int i = 0; i < purpose.length(); i++) {
+			hash ^= purpose.charAt(i);
+			hash *= 0x100000001B3L;
+		}
+		// a stream holds 2^51 substreams; substream 0 is getRandom(), and a collision moves to the next free substream
+		long substream = (mix(hash) >>> 24) + 1;
+		while (substreams.containsValue(substream)) {
+			substream++;
+		}
+		return substream;
+	}
+	
+	/**
+	 * Switches the antithetic mode of all random number streams of this state, see {@link RandomStream#setAntithetic(boolean)}. 
+	 * {@link Simulation} calls this method after {@link #seedReplication(long)} when it runs antithetic pairs of replications.
+	 * 
+	 * @param antithetic	True to complement all random numbers in the current replication
+	 */
+	public void setAntithetic(boolean antithetic) {
+		this.antithetic = antithetic;
+		random.setAntithetic(antithetic);
+		for (RandomStream stream : streams.values()) {
+			stream.setAntithetic(antithetic);
+		}
+	}
+	
+	/**
+	 * 
+	 * @return Returns true if the random number streams of this state are in antithetic mode
+	 */
+	public boolean isAntithetic() {
+		return antithetic;
+	}
+	
+	/**
+	 * 
+	 * @return Returns the seed this system state was constructed with
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * Reseeds the random number streams for replication number <code>index</code>. Replication <code>index</code> uses 
+	 * stream <code>index</code> after the first stream of the seed of this state, see {@link RandomStream#advanceStreams(long)}, 
+	 * so the random numbers of different replications never overlap, and a replication gives the same outcome regardless of 
+	 * which thread or which copy of the state runs it. {@link Simulation} calls this method before {@link Replication#reset()}.
+	 * 
+	 * Subclasses should draw their random numbers from {@link #getRandom()} or {@link #getRandom(String)}. Subclasses that keep 
+	 * random number generators of their own should override this method, call it, and reseed their generators with 
+	 * {@link #getReplicationSeed()}; note that such generators do not take part in antithetic replications.
+	 * 
+	 * @param index	Index of the replication that is about to start
+	 */
+	public void seedReplication(long index) {
+		replicationSeed = mix(seed + (index + 1) * 0x9E3779B97F4A7C15L);
+		random.setSeed(seed);
+		random.advanceStreams(index);
+		for (Entry<String, RandomStream> e : streams.entrySet()) {
+			RandomStream stream = e.getValue();
+			stream.setStream(random);
+			stream.advanceSubstreams(substreams.get(e.getKey()));
+		}
+	}
+	
+	/**
+	 * 
+	 * @return Returns a seed for the current replication, derived from the seed of this state and the index of the 
+	 * 			replication, for generators that are not a {@link RandomStream}
+	 */
+	public long getReplicationSeed() {
+		return replicationSeed;
+	}
+	
+	/**
+	 * The SplitMix64 finalizer, which turns consecutive values into well-spread seeds.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
 	/**
 	 * 
 	 * @return Returns the simulation time horizon
@@ -167,10 +393,14 @@ public abstract class SystemState<S extends SystemState<S>> {
 	/**
 	 * This analyzes the type of the current instance, and looks for methods with an @AutoMeasure annotation.
 	 * These are then automatically wrapped within PerformanceMeasure objects. The result is a list of these
-	 * automatically generated PerformanceMeasure objects.
+	 * automatically generated PerformanceMeasure objects. When a {@link StateWiring} was generated for the current
+	 * type, the measures are built by the generated code instead.
 	 * @return a list of automatically generated PerformanceMeasures based on the annotated method in the current type.
 	 */
 	public List<PerformanceMeasure<S>> getAutomaticMeasures() {
+		if (wiring != null) {
+			return wiring.createMeasures();
+		}
 		List<PerformanceMeasure<S>> result = new ArrayList<>();
 		Class<?> cls = this.getClass();
 		for (Method m : cls.getMethods()) {
@@ -190,6 +420,10 @@ public abstract class SystemState<S extends SystemState<S>> {
 	}
 	
 	public void injectCounters() {
+		if (wiredCounters != null) {
+			wiring.injectCounters(self(), wiredCounters);
+			return;
+		}
 		if (autoCounters == null) {
 			// Apparently, the counters are not managed automatically.
 			return;
@@ -198,16 +432,12 @@ public abstract class SystemState<S extends SystemState<S>> {
 			try {
 				Field f = e.getKey();
 				Counter c = e.getValue();
-				boolean acc = f.isAccessible();
-				f.setAccessible(true);
 				Object cur = f.get(this);
 				if (cur != null && cur != c) {
 					throw new RuntimeException("It seems that @AutoCounter annotated field '"+f.getName()+"' in "+f.getDeclaringClass().getName()+" was assigned a new unmanaged value. "
 							+ "Please make sure you never assign a value to an automatically managed Counter yourself.");
 				}
 				f.set(this, c);
-				f.setAccessible(acc);
-				autoCounters.put(f, c);
 			} catch (IllegalArgumentException | IllegalAccessException ex) {
 				throw new RuntimeException("Unexpected error while injecting @AutoCounter fields.", ex);
 			}
@@ -215,6 +445,13 @@ public abstract class SystemState<S extends SystemState<S>> {
 	}
 	
 	private List<Counter> getAutoCounters() {
+		if (wiring != null) {
+			if (wiredCounters == null) {
+				wiredCounters = wiring.createCounters(this::createCounter);
+			}
+			injectCounters();
+			return new ArrayList<>(wiredCounters);
+		}
 		if (autoCounters == null) {
 			autoCounters = new LinkedHashMap<>();
 			Class<?> clz = this.getClass();
@@ -227,7 +464,8 @@ public abstract class SystemState<S extends SystemState<S>> {
 						throw new IllegalStateException("Field "+f+" has an @AutoCounter annotation but is also final.");
 					}
 					AutoCounter ac = f.getAnnotation(AutoCounter.class);
-					Counter c = new Counter(ac.initialValue(), ac.value());
+					Counter c = createCounter(f.getType().asSubclass(Counter.class), ac.initialValue(), ac.value());
+					f.setAccessible(true);
 					autoCounters.put(f, c);
 				}
 			}
@@ -236,4 +474,25 @@ public abstract class SystemState<S extends SystemState<S>> {
 		return new ArrayList<>(autoCounters.values());
 	}
 	
+	/**
+	 * Creates the counter for a field annotated with {@link AutoCounter}.
+	 */
+	private Counter createCounter(Class<? extends Counter> type, double initialValue, String name) {
+		if (type == TimeWeightedCounter.class) {
+			return new TimeWeightedCounter(initialValue, name);
+		}
+		if (type == HistogramCounter.class) {
+			return new HistogramCounter(initialValue, name);
+		}
+		if (type != Counter.class) {
+			throw new IllegalStateException("Fields of type "+type.getName()+" can not be managed with an @AutoCounter annotation.");
+		}
+		return new Counter(initialValue, name);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private S self() {
+		return (S) this;
+	}
+	
 }
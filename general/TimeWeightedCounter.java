@@ -0,0 +1,107 @@
+package general;
+
+/**
+ * This class models a time-integrated statistical counter, such as the number of busy servers integrated over time.
+ *
+ * The model sets the current level with {@link #setLevel(double)} or {@link #changeLevelBy(double)}, and the value of the
+ * counter is the integral of the level over the simulation time. The integral is updated by {@link SystemState#updateCurrentTime(double)}
+ * whenever the clock advances, so the model never has to compute time differences itself. Dividing the value by the length
+ * of the simulated period gives the time average of the level.
+ *
+ * Like other counters, a time-weighted counter can be managed with an {@link general.annotations.AutoCounter} annotation.
+ * The <code>initialValue</code> of the annotation is the initial value of the integral; the level is reset to
+ * {@link #getInitialLevel()}.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class TimeWeightedCounter extends Counter {
+
+	private final double initialLevel;
+	private double level;
+	private double lastTime;
+
+	public TimeWeightedCounter(
+			double initialValue,
+			String name) {
+		this(initialValue, 0, name);
+	}
+
+	/**
+	 * @param initialValue	Initial value of the integral
+	 * @param initialLevel	Level at the start of a replication
+	 * @param name			Name of the counter
+	 */
+	public TimeWeightedCounter(
+			double initialValue,
+			double initialLevel,
+			String name) {
+		super(initialValue, name);
+		this.initialLevel = initialLevel;
+		level = initialLevel;
+	}
+
+	/**
+	 * Sets the level from the current simulation time on.
+	 *
+	 * @param level	New level
+	 */
+	public void setLevel(double level) {
+		this.level = level;
+	}
+
+	/**
+	 * Changes the level from the current simulation time on.
+	 *
+	 * @param delta	Value to add to the level
+	 */
+	public void changeLevelBy(double delta) {
+		level += delta;
+	}
+
+	/**
+	 *
+	 * @return Returns the current level
+	 */
+	public double getLevel() {
+		return level;
+	}
+
+	/**
+	 *
+	 * @return Returns the level at the start of a replication
+	 */
+	public double getInitialLevel() {
+		return initialLevel;
+	}
+
+	/**
+	 * Adds the integral of the current level from the previous update up to <code>time</code>.
+	 *
+	 * @param time	New simulation time
+	 */
+	public void advance(double time) {
+		double dt = time - lastTime;
+		if (dt > 0) {
+			if (level != 0) {
+				incrementBy(level * dt);
+			}
+			lastTime = time;
+		}
+	}
+
+	/**
+	 * Resets the integral to its initial value, the level to its initial level, and the time of the previous update to 0.
+	 */
+	@Override
+	public void reset() {
+		super.reset();
+		level = initialLevel;
+		lastTime = 0;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + getName() + ": " + getValue() + ", level " + level + "]";
+	}
+}
@@ -0,0 +1,272 @@
+package general;
+
+import java.util.Arrays;
+
+/**
+ * Detects the end of the warm-up period of a replication with the MSER rule of White (1997), and removes the
+ * warm-up period from the counters afterwards, so a shorter time horizon can be used without biasing the estimates.
+ *
+ * A detector is attached to a state with {@link SystemState#setWarmupDetector(WarmupDetector)}. During a replication
+ * it divides the simulation time into intervals of equal length, and copies the {@link CounterBank} of the state at
+ * the end of every interval. The series that is watched consists of the rate at which each of the chosen counters
+ * increases in every interval, and of the mean in every interval of the values passed to {@link #observe(double)}.
+ * When the replication ends, the MSER rule picks the truncation point that minimises the squared standard error of the
+ * mean of the remaining intervals, taking the latest point over all watched series. Every counter of the state is then
+ * reset to its value at the truncation point, as if it had been reset at that time: its value becomes its initial value
+ * plus its increase after the truncation point. Measures that divide by the elapsed time should use
+ * {@link #getTruncationTime()} as the start of the measured period.
+ *
+ * The ends of the intervals are events of their own, which are not scheduled beyond the time horizon of the state. They
+ * do not count as events of the model: a replication whose model runs out of events before the time horizon still fails
+ * in {@link Replication#run()}, as it does without a detector.
+ *
+ * Applied to intervals that contain about five observations each, the rule is the common MSER-5 rule.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class WarmupDetector {
+
+	private final double interval;
+	private final String[] watched;
+
+	private CounterBank bank;
+	private Event<?> boundary;
+	private int[] watchedIndices;
+	private double[][] snapshots = new double[16][];
+	private double[] observationSums = new double[16];
+	private long[] observationCounts = new long[16];
+	private int recorded;
+	private boolean observed;
+	private double start;
+	private int truncationPoint;
+	private double truncationTime;
+	private boolean sufficient;
+
+	/**
+	 * @param interval	Length of the intervals in simulation time
+	 * @param counters	Names of the counters to watch; values passed to {@link #observe(double)} are always watched
+	 */
+	public WarmupDetector(double interval, String... counters) {
+		if (!(interval > 0)) {
+			throw new IllegalArgumentException("Interval length must be > 0");
+		}
+		this.interval = interval;
+		this.watched = counters.clone();
+	}
+
+	/**
+	 * Adds an observation to the current interval, for example the waiting time of a customer.
+	 *
+	 * @param x	Observed value
+	 */
+	public void observe(double x) {
+		observationSums[recorded] += x;
+		observationCounts[recorded]++;
+		observed = true;
+	}
+
+	/**
+	 * Starts watching a new replication. Called by {@link Replication#reset()} after the state has been reset.
+	 */
+	<S extends SystemState<S>> void start(S state) {
+		bank = state.getCounterBank();
+		watchedIndices = new int[watched.length];
+		for (int w = 0; w < watched.length; w++) {
+			watchedIndices[w] = indexOf(watched[w]);
+		}
+		Arrays.fill(observationSums, 0);
+		Arrays.fill(observationCounts, 0);
+		recorded = 0;
+		observed = false;
+		truncationPoint = 0;
+		start = state.getCurrentTime();
+		truncationTime = start;
+		sufficient = true;
+		snapshots[0] = bank.snapshot(snapshots[0] == null ? new double[bank.size()] : snapshots[0]);
+		Boundary<S> first = new Boundary<>(start + interval);
+		boundary = first;
+		if (first.getTime() <= state.getTimeHorizon()) {
+			state.addEvent(first);
+		}
+	}
+
+	/**
+	 * @return Returns true if <code>e</code> is the end of an interval, scheduled by this detector
+	 */
+	boolean isBoundary(Event<?> e) {
+		return e == boundary;
+	}
+
+	/**
+	 * Copies the counters at the end of an interval.
+	 */
+	private void record() {
+		recorded++;
+		if (recorded == snapshots.length) {
+			int capacity = 2 * snapshots.length;
+			snapshots = Arrays.copyOf(snapshots, capacity);
+			observationSums = Arrays.copyOf(observationSums, capacity);
+			observationCounts = Arrays.copyOf(observationCounts, capacity);
+		}
+		double[] snapshot = snapshots[recorded];
+		snapshots[recorded] = bank.snapshot(snapshot == null ? new double[bank.size()] : snapshot);
+	}
+
+	/**
+	 * The end of an interval, which schedules itself again at the end of the next one.
+	 */
+	private final class Boundary<S extends SystemState<S>> extends Event<S> {
+
+		Boundary(double time) {
+			super(time);
+		}
+
+		@Override
+		public void process(S state) {
+			record();
+			double next = start + (recorded + 1) * interval;
+			if (next <= state.getTimeHorizon()) {
+				setTime(next);
+				state.addEvent(this);
+			}
+		}
+	}
+
+	private int indexOf(String name) {
+		for (int i = 0; i < bank.size(); i++) {
+			if (name.equals(bank.getCounter(i).getName())) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("The state has no counter named '" + name + "'");
+	}
+
+	/**
+	 * Picks the truncation point and removes the warm-up period from the counters. Called by {@link Replication#run()}
+	 * when the replication has ended.
+	 */
+	void truncate() {
+		int intervals = recorded;
+		int point = 0;
+		sufficient = true;
+		for (int index : watchedIndices) {
+			double[] rates = new double[intervals];
+			for (int k = 0; k < intervals; k++) {
+				rates[k] = (snapshots[k + 1][index] - snapshots[k][index]) / interval;
+			}
+			point = Math.max(point, choose(rates, identity(intervals)));
+		}
+		if (observed) {
+			int n = 0;
+			double[] means = new double[intervals];
+			int[] positions = new int[intervals];
+			for (int k = 0; k < intervals; k++) {
+				if (observationCounts[k] > 0) {
+					means[n] = observationSums[k] / observationCounts[k];
+					positions[n] = k;
+					n++;
+				}
+			}
+			point = Math.max(point, choose(Arrays.copyOf(means, n), Arrays.copyOf(positions, n)));
+		}
+		truncationPoint = point;
+		truncationTime = start + point * interval;
+		if (point > 0) {
+			double[] initial = bank.getInitialValues();
+			double[] values = bank.snapshot();
+			double[] at = snapshots[point];
+			for (int c = 0; c < values.length; c++) {
+				values[c] = initial[c] + values[c] - at[c];
+			}
+			bank.load(values);
+		}
+	}
+
+	/**
+	 * @return Returns the interval at which the series should be truncated
+	 */
+	private int choose(double[] series, int[] positions) {
+		if (series.length < 2) {
+			return 0;
+		}
+		int d = mser(series);
+		if (d == series.length / 2) {
+			sufficient = false;
+		}
+		return positions[d];
+	}
+
+	private static int[] identity(int n) {
+		int[] result = new int[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Applies the MSER rule to a series: finds the number of leading values <code>d</code>, at most half the length
+	 * of the series, that minimises the variance of the remaining values divided by their number squared.
+	 *
+	 * @param x	Series of (batch) means
+	 * @return Returns the number of values to delete from the start of the series
+	 */
+	public static int mser(double[] x) {
+		int n = x.length;
+		double sum = 0;
+		double sumSquares = 0;
+		// walk backwards so the statistics of every suffix are available in one pass
+		double best = Double.POSITIVE_INFINITY;
+		int bestD = 0;
+		for (int d = n - 1; d >= 0; d--) {
+			sum += x[d];
+			sumSquares += x[d] * x[d];
+			if (d <= n / 2) {
+				int m = n - d;
+				double mean = sum / m;
+				double ss = Math.max(0, sumSquares - m * mean * mean);
+				double statistic = ss / ((double) m * m);
+				if (statistic <= best) {
+					best = statistic;
+					bestD = d;
+				}
+			}
+		}
+		return bestD;
+	}
+
+	/**
+	 *
+	 * @return Returns the number of intervals that were removed from the last replication
+	 */
+	public int getTruncationPoint() {
+		return truncationPoint;
+	}
+
+	/**
+	 *
+	 * @return Returns the simulation time at which the counters of the last replication were reset
+	 */
+	public double getTruncationTime() {
+		return truncationTime;
+	}
+
+	/**
+	 * The MSER rule is considered to have failed when the truncation point lies in the middle of the series,
+	 * which means that the replication was too short to complete the warm-up.
+	 *
+	 * @return Returns false if the last replication was too short to detect the end of the warm-up period
+	 */
+	public boolean isWarmupSufficient() {
+		return sufficient;
+	}
+
+	/**
+	 *
+	 * @return Returns the length of the intervals
+	 */
+	public double getInterval() {
+		return interval;
+	}
+}
@@ -0,0 +1,377 @@
+package general.annotations.processing;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+import general.annotations.AutoCounter;
+import general.annotations.AutoMeasure;
+import general.annotations.Initialize;
+import general.annotations.StopCriterium;
+import general.automagic.StateWirings;
+
+/**
+ * Annotation processor that generates a {@link general.automagic.StateWiring} companion class for every
+ * SystemState subclass that uses {@link AutoCounter}, {@link AutoMeasure}, {@link Initialize} or
+ * {@link StopCriterium}. For a class <code>MMCCState</code> it generates <code>MMCCState_Wiring</code> in the
+ * same package, which the framework picks up at runtime instead of scanning the class by reflection.
+ *
+ * The processor performs the same checks on the annotated members as the framework does at runtime, and
+ * reports violations as compile errors. The generated class assigns the annotated fields directly, except private
+ * fields, which it assigns through a {@link java.lang.reflect.Field} that is looked up once. It also records the
+ * annotated members, so the framework ignores it once the state class has changed without the processor running
+ * again. The processor claims the four annotations it handles. Enable the processor by compiling with
+ * <code>-processor general.annotations.processing.WiringProcessor</code> and the framework on the processor path.
+ *
+ * @author Paul Bouman
+ *
+ */
+public class WiringProcessor extends AbstractProcessor {
+
+	private static final String SYSTEM_STATE = "general.SystemState";
+	private static final String COUNTER = "general.Counter";
+	private static final String SUFFIX = "_Wiring";
+
+	// declared here rather than with @SupportedAnnotationTypes, which nothing claims when the processor compiles itself
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return new LinkedHashSet<>(Arrays.asList(
+				AutoCounter.class.getName(),
+				AutoMeasure.class.getName(),
+				Initialize.class.getName(),
+				StopCriterium.class.getName()));
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		Set<TypeElement> states = new LinkedHashSet<>();
+		for (TypeElement annotation : annotations) {
+			for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+				Element enclosing = e.getEnclosingElement();
+				if (enclosing instanceof TypeElement) {
+					states.add((TypeElement) enclosing);
+				}
+			}
+		}
+		for (TypeElement state : states) {
+			if (isWirable(state)) {
+				generate(state);
+			}
+		}
+		// no other processor handles the annotations of the framework
+		return true;
+	}
+
+	/**
+	 * @return true if <code>type</code> is a concrete, non-generic class <code>C</code> that extends <code>SystemState&lt;C&gt;</code>,
+	 * and that can be referred to from another class in its package
+	 */
+	private boolean isWirable(TypeElement type) {
+		if (type.getKind() != ElementKind.CLASS
+				|| type.getModifiers().contains(Modifier.ABSTRACT)
+				|| type.getModifiers().contains(Modifier.PRIVATE)
+				|| !type.getTypeParameters().isEmpty()) {
+			return false;
+		}
+		NestingKind nesting = type.getNestingKind();
+		if (nesting == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+			return false;
+		}
+		if (nesting != NestingKind.TOP_LEVEL && nesting != NestingKind.MEMBER) {
+			return false;
+		}
+		TypeMirror superclass = type.getSuperclass();
+		while (superclass.getKind() == TypeKind.DECLARED) {
+			DeclaredType declared = (DeclaredType) superclass;
+			TypeElement element = (TypeElement) declared.asElement();
+			if (element.getQualifiedName().contentEquals(SYSTEM_STATE)) {
+				List<? extends TypeMirror> args = declared.getTypeArguments();
+				return args.size() == 1 && processingEnv.getTypeUtils().isSameType(args.get(0), type.asType());
+			}
+			superclass = element.getSuperclass();
+		}
+		return false;
+	}
+
+	private void generate(TypeElement state) {
+		String stateName = processingEnv.getTypeUtils().erasure(state.asType()).toString();
+		List<VariableElement> counters = new ArrayList<>();
+		List<ExecutableElement> measures = new ArrayList<>();
+		List<ExecutableElement> initializers = new ArrayList<>();
+		List<ExecutableElement> stopCriteria = new ArrayList<>();
+		List<String> members = new ArrayList<>();
+		boolean valid = true;
+
+		TypeMirror counterType = processingEnv.getElementUtils().getTypeElement(COUNTER).asType();
+		for (Element e : state.getEnclosedElements()) {
+			if (e.getKind() != ElementKind.FIELD || e.getAnnotation(AutoCounter.class) == null) {
+				continue;
+			}
+			if (!processingEnv.getTypeUtils().isAssignable(e.asType(), counterType)) {
+				error(e, "Field has an @AutoCounter annotation but is not of type Counter.");
+				valid = false;
+			}
+			else if (e.getModifiers().contains(Modifier.FINAL)) {
+				error(e, "Field has an @AutoCounter annotation but is also final.");
+				valid = false;
+			}
+			else {
+				AutoCounter ac = e.getAnnotation(AutoCounter.class);
+				members.add(StateWirings.member("counter", e.getSimpleName().toString(), binaryName(e.asType()),
+						Double.toString(ac.initialValue()), ac.value()));
+				counters.add((VariableElement) e);
+			}
+		}
+
+		for (Element e : processingEnv.getElementUtils().getAllMembers(state)) {
+			if (e.getKind() != ElementKind.METHOD
+					|| !e.getModifiers().contains(Modifier.PUBLIC)
+					|| e.getModifiers().contains(Modifier.STATIC)) {
+				// the framework only considers public instance methods
+				continue;
+			}
+			ExecutableElement m = (ExecutableElement) e;
+			if (m.getAnnotation(AutoMeasure.class) != null) {
+				if (!m.getParameters().isEmpty()) {
+					error(m, "Method has arguments, but this is not allowed for @AutoMeasure methods");
+					valid = false;
+				}
+				else if (!isNumeric(m.getReturnType())) {
+					error(m, "Method does not return a primitive numeric value or a subclass of Number, but this is required for @AutoMeasure methods");
+					valid = false;
+				}
+				else {
+					measures.add(m);
+					members.add(StateWirings.member("measure", m.getSimpleName().toString(), m.getAnnotation(AutoMeasure.class).value()));
+				}
+			}
+			if (m.getAnnotation(Initialize.class) != null) {
+				if (!m.getParameters().isEmpty()) {
+					error(m, "Method has an @Initialize annotation, but has one or more arguments.");
+					valid = false;
+				}
+				else {
+					initializers.add(m);
+					members.add(StateWirings.member("initialize", m.getSimpleName().toString()));
+				}
+			}
+			if (m.getAnnotation(StopCriterium.class) != null) {
+				if (m.getParameters().size() > 1) {
+					error(m, "Method has a @StopCriterium annotation, but has more than one argument.");
+					valid = false;
+				}
+				else if (!isBoolean(m.getReturnType())) {
+					error(m, "Method has a @StopCriterium annotation, but the return type is not Boolean.");
+					valid = false;
+				}
+				else {
+					stopCriteria.add(m);
+					members.add(StateWirings.member("stop", m.getSimpleName().toString(), Integer.toString(m.getParameters().size())));
+				}
+			}
+		}
+		if (valid) {
+			write(state, stateName, StateWirings.signature(members), counters, measures, initializers, stopCriteria);
+		}
+	}
+
+	private void write(
+			TypeElement state,
+			String stateName,
+			String signature,
+			List<VariableElement> counters,
+			List<ExecutableElement> measures,
+			List<ExecutableElement> initializers,
+			List<ExecutableElement> stopCriteria) {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(state);
+		String packageName = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+		String simpleName = (packageName.isEmpty() ? stateName : stateName.substring(packageName.length() + 1)).replace('.', '_') + SUFFIX;
+		String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, state);
+			try (PrintWriter out = new PrintWriter(file.openWriter())) {
+				if (!packageName.isEmpty()) {
+					out.println("package " + packageName + ";");
+					out.println();
+				}
+				out.println("/**");
+				out.println(" * Wiring for {@link " + stateName + "}, generated by " + WiringProcessor.class.getName() + ". Do not edit.");
+				out.println(" */");
+				out.println("public final class " + simpleName + " implements general.automagic.StateWiring<" + stateName + "> {");
+				out.println();
+				boolean fields = false;
+				for (VariableElement f : counters) {
+					if (f.getModifiers().contains(Modifier.PRIVATE)) {
+						out.println("\tprivate static final java.lang.reflect.Field FIELD_" + f.getSimpleName()
+								+ " = general.automagic.StateWirings.field(" + stateName + ".class, " + stringLiteral(f.getSimpleName().toString()) + ");");
+						fields = true;
+					}
+				}
+				if (fields) {
+					out.println();
+				}
+
+				out.println("\t@Override");
+				out.println("\tpublic String getSignature() {");
+				out.println("\t\treturn " + stringLiteral(signature) + ";");
+				out.println("\t}");
+				out.println();
+
+				out.println("\t@Override");
+				out.println("\tpublic java.util.List<general.Counter> createCounters(general.automagic.CounterFactory factory) {");
+				out.println("\t\tjava.util.List<general.Counter> counters = new java.util.ArrayList<>(" + counters.size() + ");");
+				for (VariableElement f : counters) {
+					AutoCounter ac = f.getAnnotation(AutoCounter.class);
+					out.println("\t\tcounters.add(factory.create(" + typeName(f) + ".class, " + doubleLiteral(ac.initialValue())
+							+ ", " + stringLiteral(ac.value()) + "));");
+				}
+				out.println("\t\treturn counters;");
+				out.println("\t}");
+				out.println();
+
+				out.println("\t@Override");
+				out.println("\tpublic void injectCounters(" + stateName + " state, java.util.List<general.Counter> counters) {");
+				for (int i = 0; i < counters.size(); i++) {
+					VariableElement f = counters.get(i);
+					if (f.getModifiers().contains(Modifier.PRIVATE)) {
+						out.println("\t\tgeneral.automagic.StateWirings.inject(state, FIELD_" + f.getSimpleName() + ", counters.get(" + i + "));");
+						continue;
+					}
+					String field = (f.getModifiers().contains(Modifier.STATIC) ? stateName : "state") + "." + f.getSimpleName();
+					// the list holds plain counters, so only subclasses need a cast
+					String counter = typeName(f).equals(COUNTER) ? "" : "(" + typeName(f) + ") ";
+					out.println("\t\t" + field + " = general.automagic.StateWirings.checkManaged(" + field + ", " + counter
+							+ "counters.get(" + i + "), " + stringLiteral(f.getSimpleName().toString()) + ", " + stateName + ".class);");
+				}
+				out.println("\t}");
+				out.println();
+
+				out.println("\t@Override");
+				out.println("\tpublic java.util.List<general.PerformanceMeasure<" + stateName + ">> createMeasures() {");
+				out.println("\t\tjava.util.List<general.PerformanceMeasure<" + stateName + ">> measures = new java.util.ArrayList<>(" + measures.size() + ");");
+				for (ExecutableElement m : measures) {
+					String call = "s." + m.getSimpleName() + "()";
+					if (!m.getReturnType().getKind().isPrimitive()) {
+						call = "general.automagic.StateWirings.toDouble(" + call + ")";
+					}
+					out.println("\t\tmeasures.add(new general.automagic.FunctionalPerformanceMeasure<" + stateName + ">("
+							+ stringLiteral(m.getAnnotation(AutoMeasure.class).value()) + ", s -> " + call + "));");
+				}
+				out.println("\t\treturn measures;");
+				out.println("\t}");
+				out.println();
+
+				out.println("\t@Override");
+				out.println("\tpublic boolean hasInitializers() {");
+				out.println("\t\treturn " + !initializers.isEmpty() + ";");
+				out.println("\t}");
+				out.println();
+
+				out.println("\t@Override");
+				out.println("\tpublic void initialize(" + stateName + " state) {");
+				for (ExecutableElement m : initializers) {
+					out.println("\t\tstate." + m.getSimpleName() + "();");
+				}
+				out.println("\t}");
+				out.println();
+
+				out.println("\t@Override");
+				out.println("\tpublic boolean shouldTerminate(" + stateName + " state) {");
+				StringBuilder condition = new StringBuilder();
+				for (ExecutableElement m : stopCriteria) {
+					if (condition.length() > 0) {
+						condition.append("\n\t\t\t|| ");
+					}
+					condition.append("state.").append(m.getSimpleName()).append(m.getParameters().isEmpty() ? "()" : "(state)");
+				}
+				out.println("\t\treturn " + (condition.length() == 0 ? "false" : condition) + ";");
+				out.println("\t}");
+				out.println("}");
+			}
+		} catch (IOException ex) {
+			error(state, "Unable to write the wiring for " + stateName + ": " + ex.getMessage());
+		}
+	}
+
+	private boolean isNumeric(TypeMirror type) {
+		switch (type.getKind()) {
+		case INT:
+		case DOUBLE:
+		case LONG:
+		case FLOAT:
+		case SHORT:
+		case BYTE:
+			return true;
+		case DECLARED:
+			TypeMirror number = processingEnv.getElementUtils().getTypeElement("java.lang.Number").asType();
+			return processingEnv.getTypeUtils().isAssignable(type, number);
+		default:
+			return false;
+		}
+	}
+
+	private boolean isBoolean(TypeMirror type) {
+		if (type.getKind() == TypeKind.BOOLEAN) {
+			return true;
+		}
+		TypeMirror bool = processingEnv.getElementUtils().getTypeElement("java.lang.Boolean").asType();
+		return type.getKind() == TypeKind.DECLARED && processingEnv.getTypeUtils().isSameType(type, bool);
+	}
+
+	/**
+	 * @return the name of the erasure of a declared type as returned by {@link Class#getName()}
+	 */
+	private String binaryName(TypeMirror type) {
+		TypeElement element = (TypeElement) processingEnv.getTypeUtils().asElement(processingEnv.getTypeUtils().erasure(type));
+		return processingEnv.getElementUtils().getBinaryName(element).toString();
+	}
+
+	private String typeName(VariableElement field) {
+		return processingEnv.getTypeUtils().erasure(field.asType()).toString();
+	}
+
+	private String stringLiteral(String s) {
+		return processingEnv.getElementUtils().getConstantExpression(s);
+	}
+
+	private static String doubleLiteral(double d) {
+		if (Double.isNaN(d)) {
+			return "Double.NaN";
+		}
+		if (Double.isInfinite(d)) {
+			return d > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+		}
+		return Double.toString(d) + "d";
+	}
+
+	private void error(Element e, String message) {
+		processingEnv.getMessager().printMessage(Kind.ERROR, message, e);
+	}
+}
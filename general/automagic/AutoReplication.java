@@ -1,9 +1,11 @@
 package general.automagic;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import general.Replication;
 import general.SystemState;
@@ -17,6 +19,11 @@ import general.annotations.StopCriterium;
  * annotations. This circumvents the need to write your own subclass of
  * Replication
  * 
+ * The annotated methods are bound once with {@link MethodBinder}, so checking
+ * the termination criteria before every event costs about as much as calling
+ * the methods directly. When a {@link StateWiring} was generated for the class
+ * of the state, its plain Java code is used instead and no reflection is needed.
+ * 
  * @author Paul Bouman
  *
  * @param <S> the type of the State in this simulation
@@ -24,23 +31,34 @@ import general.annotations.StopCriterium;
 
 public class AutoReplication<S extends SystemState<S>> extends Replication<S> {
 
-	private List<Method> initMethods;
-	private List<Method> terminateMethodsWithArg;
-	private List<Method> terminateMethods;
+	private static final String NO_INITIALIZER = "The provided state must have at least one method "
+			+ "with the @Initialize annotation that is used to initialize the state and "
+			+ "insert starting events at the beginning of a simulation run";
+
+	private List<Consumer<S>> initMethods;
+	private Predicate<S> terminate;
 	
 	public AutoReplication(S state) {
 		super(state);
 		
-		this.terminateMethods = new ArrayList<>();
-		this.terminateMethodsWithArg = new ArrayList<>();
+		List<Predicate<S>> terminateMethods = new ArrayList<>();
 		this.initMethods = new ArrayList<>();
+		StateWiring<S> wiring = StateWirings.find(state.getClass());
+		if (wiring != null) {
+			if (!wiring.hasInitializers()) {
+				throw new IllegalArgumentException(NO_INITIALIZER);
+			}
+			this.initMethods.add(wiring::initialize);
+			this.terminate = wiring::shouldTerminate;
+			return;
+		}
 		for (Method m : state.getClass().getMethods()) {
 			if (m.isAnnotationPresent(Initialize.class)) {
 				if (m.getParameterCount() != 0) {
 					throw new IllegalArgumentException("Method "+m+" has an "
 							+ "@Initialize annotation, but has one or more arguments.");
 				}
-				this.initMethods.add(m);
+				this.initMethods.add(MethodBinder.consumer(m));
 			}
 			if (m.isAnnotationPresent(StopCriterium.class)) {
 				if (m.getParameterCount() > 1) {
@@ -52,19 +70,34 @@ public class AutoReplication<S extends SystemState<S>> extends Replication<S> {
 							+ "@ShouldTerminate annotation, but the return type is not Boolean.");
 				}
 				if (m.getParameterCount() == 1) {
-					this.terminateMethodsWithArg.add(m);
+					BiPredicate<S,S> p = MethodBinder.biPredicate(m);
+					terminateMethods.add(s -> p.test(s, s));
 				}
 				else {
-					this.terminateMethods.add(m);
+					terminateMethods.add(MethodBinder.predicate(m));
 				}
 			}
 		}
 		
 		if (initMethods.isEmpty()) {
-			throw new IllegalArgumentException("The provided state must have at least one method "
-					+ "with the @Initialize annotation that is used to initialize the state and "
-					+ "insert starting events at the beginning of a simulation run");
+			throw new IllegalArgumentException(NO_INITIALIZER);
 		}
+		this.terminate = combine(terminateMethods);
+	}
+	
+	/**
+	 * Combines the termination criteria into a single predicate. With a single criterion, which is the common case,
+	 * the predicate of that criterion is used as is, so the call in {@link #shouldTerminate(SystemState)} stays monomorphic.
+	 */
+	private static <S> Predicate<S> combine(List<Predicate<S>> criteria) {
+		if (criteria.isEmpty()) {
+			return s -> false;
+		}
+		Predicate<S> result = criteria.get(0);
+		for (int i = 1; i < criteria.size(); i++) {
+			result = result.or(criteria.get(i));
+		}
+		return result;
 	}
 	
 	public static boolean isBoolean(Class<?> cls) {
@@ -75,40 +108,14 @@ public class AutoReplication<S extends SystemState<S>> extends Replication<S> {
 	@Override
 	public void initialize() {
 		S state = getSystemState();
-		for (Method m : initMethods) {
-			try {
-				m.invoke(state);
-			} catch (IllegalAccessException | IllegalArgumentException ex) {
-				throw new RuntimeException("Unexpected exception while executing replication initializers", ex);
-			} catch (InvocationTargetException ex) {
-				throw new RuntimeException("While running init method "+m+", an exception occured", ex);
-			}
-			
+		for (Consumer<S> m : initMethods) {
+			m.accept(state);
 		}
 	}
 
 	@Override
 	public boolean shouldTerminate(S state) {
-		
-			try {
-				for (Method m : terminateMethods) {
-					Boolean b = (Boolean) m.invoke(state);
-					if (b) {
-						return true;
-					}
-				}
-				for (Method m : terminateMethodsWithArg) {
-					Boolean b = (Boolean) m.invoke(state,state);
-					if (b) {
-						return true;
-					}
-				}
-			} catch (IllegalAccessException | IllegalArgumentException ex) {
-				throw new RuntimeException("Unexpected exception while checking for termination", ex);
-			} catch (InvocationTargetException ex) {
-				throw new RuntimeException("While running a termination method an exception occured", ex.getCause());
-			}
-		return false;
+		return terminate.test(state);
 	}
 
 }
@@ -0,0 +1,23 @@
+package general.automagic;
+
+import general.Counter;
+
+/**
+ * Creates the {@link Counter} for a field annotated with {@link general.annotations.AutoCounter}. 
+ * The system state passes its factory to {@link StateWiring#createCounters(CounterFactory)}, so 
+ * generated wiring creates exactly the same counters as the reflective code path.
+ *
+ * @author Paul Bouman
+ *
+ */
+@FunctionalInterface
+public interface CounterFactory {
+
+	/**
+	 * @param type			The declared type of the annotated field
+	 * @param initialValue	The initial value of the counter
+	 * @param name			The description of the counter
+	 * @return a new counter that can be assigned to a field of type <code>type</code>
+	 */
+	Counter create(Class<? extends Counter> type, double initialValue, String name);
+}
@@ -0,0 +1,68 @@
+package general.automagic;
+
+import java.util.function.DoubleConsumer;
+
+import general.Event;
+import general.SystemState;
+
+/**
+ * Event that simply calls a {@link DoubleConsumer} with the time of the event
+ * as it's process action. Unlike {@link ConsumerEvent}, the time is passed as
+ * a primitive double, so processing the event does not box it. This is mostly
+ * to create events based on methods rather than having to implement your own
+ * Event subclasses.
+ *
+ * @author Paul Bouman
+ *
+ * @param <S> the State used in the simulations
+ */
+public class DoubleConsumerEvent<S extends SystemState<S>> extends Event<S> {
+
+	private DoubleConsumer consumer;
+	private final EventPool<DoubleConsumerEvent<S>> pool;
+
+	public DoubleConsumerEvent(double time, DoubleConsumer consumer) {
+		super(time);
+		this.consumer = consumer;
+		this.pool = null;
+	}
+
+	/**
+	 * Creates an event that belongs to <code>pool</code>. It is scheduled with {@link #reuse(double, DoubleConsumer)},
+	 * and returns itself to the pool once it has been processed.
+	 *
+	 * @param pool the pool this event belongs to
+	 */
+	public DoubleConsumerEvent(EventPool<DoubleConsumerEvent<S>> pool) {
+		super(0);
+		this.pool = pool;
+	}
+
+	/**
+	 * Prepares a pooled event for being added to the event queue.
+	 *
+	 * @param time the time at which the event takes place
+	 * @param consumer the action to perform at this time
+	 */
+	public void reuse(double time, DoubleConsumer consumer) {
+		if (pool == null) {
+			throw new IllegalStateException("Only events that belong to an EventPool can be reused.");
+		}
+		setTime(time);
+		this.consumer = consumer;
+	}
+
+	@Override
+	public void process(S state) {
+		consumer.accept(this.getTime());
+	}
+
+	@Override
+	public void release() {
+		if (pool != null) {
+			consumer = null;
+			pool.release(this);
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package general.automagic;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+import general.Event;
+
+/**
+ * Pool of reusable events. Events are handed out by {@link #acquire()} and come back through {@link #release(Event)},
+ * which pooled events call themselves from {@link Event#release()} once they have been processed. After a warm-up
+ * the pool holds enough events for the model, and scheduling events no longer allocates any objects.
+ *
+ * {@link #clear()} makes every event that was ever created by this pool available again in constant time, including
+ * those that were never released. This is only safe when none of these events is still in use, for example because
+ * the event queue was cleared at the same time.
+ *
+ * @author Paul Bouman
+ *
+ * @param <E> the type of the pooled events
+ */
+public class EventPool<E extends Event<?>> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Function<EventPool<E>, E> factory;
+
+	// every event created by this pool; events[0..handedOut) are in use or on the free list, the rest are available
+	private Event<?>[] events;
+	private int created;
+	private int handedOut;
+
+	private Event<?>[] free;
+	private int freeCount;
+
+	/**
+	 * @param factory	Creates a new event that belongs to the given pool
+	 */
+	public EventPool(Function<EventPool<E>, E> factory) {
+		this.factory = factory;
+		this.events = new Event<?>[INITIAL_CAPACITY];
+		this.free = new Event<?>[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * @return Returns an event that is currently not in use, creating a new one if necessary
+	 */
+	@SuppressWarnings("unchecked")
+	public E acquire() {
+		if (freeCount > 0) {
+			return (E) free[--freeCount];
+		}
+		if (handedOut == created) {
+			if (created == events.length) {
+				events = Arrays.copyOf(events, 2 * created);
+				free = Arrays.copyOf(free, 2 * created);
+			}
+			events[created++] = factory.apply(this);
+		}
+		return (E) events[handedOut++];
+	}
+
+	/**
+	 * Returns an event to the pool, such that it can be handed out again.
+	 *
+	 * @param e	An event obtained from {@link #acquire()} that is no longer in use
+	 */
+	public void release(E e) {
+		free[freeCount++] = e;
+	}
+
+	/**
+	 * Makes all events created by this pool available again, in constant time.
+	 */
+	public void clear() {
+		freeCount = 0;
+		handedOut = 0;
+	}
+}
@@ -0,0 +1,37 @@
+package general.automagic;
+
+import java.util.function.ToDoubleFunction;
+
+import general.PerformanceMeasure;
+import general.SystemState;
+
+/**
+ * This class models performance measures that are computed by a
+ * {@link ToDoubleFunction} of the state, such as a lambda expression or
+ * a method reference. This saves the programmer from creating explicit
+ * subclasses of PerformanceMeasure.
+ *
+ * @author Paul Bouman
+ *
+ * @param <S> the type of the state in the simulation
+ */
+public class FunctionalPerformanceMeasure<S extends SystemState<S>> extends PerformanceMeasure<S>
+{
+	private final ToDoubleFunction<? super S> function;
+
+	public FunctionalPerformanceMeasure(String name, ToDoubleFunction<? super S> function)
+	{
+		super(name);
+		if (function == null) {
+			throw new IllegalArgumentException("Function cannot be null.");
+		}
+		this.function = function;
+	}
+
+	@Override
+	public double compute(S state)
+	{
+		return function.applyAsDouble(state);
+	}
+
+}
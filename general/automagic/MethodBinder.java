@@ -0,0 +1,195 @@
+package general.automagic;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Turns annotated methods of a SystemState subclass into functional interfaces, once, when the
+ * simulation is set up. The methods are bound with {@link LambdaMetafactory}, the same mechanism
+ * that <code>javac</code> uses for method references, so calling the result costs the same as
+ * calling the method directly and can be inlined by the JIT compiler. This replaces a call to
+ * {@link Method#invoke(Object, Object...)}, which boxes its arguments and result on every call.
+ *
+ * When the method can not be bound this way, for example because its class is not public, it is
+ * called through a {@link MethodHandle} instead.
+ *
+ * @author Paul Bouman
+ *
+ */
+public final class MethodBinder {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private MethodBinder() {
+
+	}
+
+	/**
+	 * @param m an instance method without arguments
+	 * @return a consumer that calls <code>m</code> on its argument and ignores the result
+	 */
+	public static <S> Consumer<S> consumer(Method m) {
+		MethodHandle target = unreflect(m);
+		MethodType instantiated = MethodType.methodType(void.class, m.getDeclaringClass());
+		Consumer<S> bound = bind(target, Consumer.class, "accept", instantiated);
+		if (bound != null) {
+			return bound;
+		}
+		MethodHandle h = target.asType(MethodType.methodType(void.class, Object.class));
+		return s -> {
+			try {
+				h.invokeExact((Object) s);
+			}
+			catch (Throwable t) {
+				throw rethrow(m, t);
+			}
+		};
+	}
+
+	/**
+	 * @param m an instance method without arguments that returns <code>boolean</code> or {@link Boolean}
+	 * @return a predicate that calls <code>m</code> on its argument
+	 */
+	public static <S> Predicate<S> predicate(Method m) {
+		MethodHandle target = unreflect(m);
+		MethodType instantiated = MethodType.methodType(boolean.class, m.getDeclaringClass());
+		Predicate<S> bound = bind(target, Predicate.class, "test", instantiated);
+		if (bound != null) {
+			return bound;
+		}
+		MethodHandle h = target.asType(MethodType.methodType(boolean.class, Object.class));
+		return s -> {
+			try {
+				return (boolean) h.invokeExact((Object) s);
+			}
+			catch (Throwable t) {
+				throw rethrow(m, t);
+			}
+		};
+	}
+
+	/**
+	 * @param m an instance method with one argument that returns <code>boolean</code> or {@link Boolean}
+	 * @return a predicate that calls <code>m</code> on its first argument, passing the second argument
+	 */
+	public static <S, T> BiPredicate<S, T> biPredicate(Method m) {
+		MethodHandle target = unreflect(m);
+		MethodType instantiated = MethodType.methodType(boolean.class, m.getDeclaringClass(), m.getParameterTypes()[0]);
+		BiPredicate<S, T> bound = bind(target, BiPredicate.class, "test", instantiated);
+		if (bound != null) {
+			return bound;
+		}
+		MethodHandle h = target.asType(MethodType.methodType(boolean.class, Object.class, Object.class));
+		return (s, t) -> {
+			try {
+				return (boolean) h.invokeExact((Object) s, (Object) t);
+			}
+			catch (Throwable ex) {
+				throw rethrow(m, ex);
+			}
+		};
+	}
+
+	/**
+	 * @param m an instance method without arguments that returns a primitive numeric value or a {@link Number}
+	 * @return a function that calls <code>m</code> on its argument and converts the result to a double,
+	 * where a <code>null</code> result becomes 0
+	 */
+	public static <S> ToDoubleFunction<S> toDoubleFunction(Method m) {
+		MethodHandle target = unreflect(m);
+		if (m.getReturnType().isPrimitive()) {
+			MethodType instantiated = MethodType.methodType(double.class, m.getDeclaringClass());
+			ToDoubleFunction<S> bound = bind(target, ToDoubleFunction.class, "applyAsDouble", instantiated);
+			if (bound != null) {
+				return bound;
+			}
+			MethodHandle h = target.asType(MethodType.methodType(double.class, Object.class));
+			return s -> {
+				try {
+					return (double) h.invokeExact((Object) s);
+				}
+				catch (Throwable t) {
+					throw rethrow(m, t);
+				}
+			};
+		}
+		MethodType instantiated = MethodType.methodType(m.getReturnType(), m.getDeclaringClass());
+		Function<S, Number> bound = bind(target, Function.class, "apply", instantiated);
+		if (bound == null) {
+			MethodHandle h = target.asType(MethodType.methodType(Number.class, Object.class));
+			bound = s -> {
+				try {
+					return (Number) h.invokeExact((Object) s);
+				}
+				catch (Throwable t) {
+					throw rethrow(m, t);
+				}
+			};
+		}
+		Function<S, Number> f = bound;
+		return s -> {
+			Number n = f.apply(s);
+			return n == null ? 0d : n.doubleValue();
+		};
+	}
+
+	private static MethodHandle unreflect(Method m) {
+		if (Modifier.isStatic(m.getModifiers())) {
+			throw new IllegalArgumentException("Method " + m + " is static, but only instance methods can be bound.");
+		}
+		try {
+			return LOOKUP.unreflect(m);
+		}
+		catch (IllegalAccessException ex) {
+			try {
+				m.setAccessible(true);
+				return LOOKUP.unreflect(m);
+			}
+			catch (IllegalAccessException | RuntimeException ex2) {
+				throw new IllegalArgumentException("Method " + m + " is not accessible.", ex2);
+			}
+		}
+	}
+
+	/**
+	 * Spins a lambda that implements <code>samName</code> of interface <code>type</code> by calling <code>target</code>.
+	 *
+	 * @return the lambda, or <code>null</code> if the method can not be bound this way
+	 */
+	@SuppressWarnings("unchecked")
+	private static <F> F bind(MethodHandle target, Class<?> type, String samName, MethodType instantiated) {
+		MethodType erased = instantiated.erase();
+		try {
+			CallSite site = LambdaMetafactory.metafactory(LOOKUP, samName, MethodType.methodType(type),
+					erased, target, instantiated);
+			return (F) site.getTarget().invoke();
+		}
+		catch (LambdaConversionException | IllegalAccessError ex) {
+			return null;
+		}
+		catch (Throwable t) {
+			throw new IllegalStateException("Unexpected exception while binding " + target, t);
+		}
+	}
+
+	private static RuntimeException rethrow(Method m, Throwable t) {
+		if (t instanceof RuntimeException) {
+			return (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new RuntimeException("An error occurred while calling " + m, t);
+	}
+}
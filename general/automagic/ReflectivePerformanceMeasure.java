@@ -1,33 +1,34 @@
 package general.automagic;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.function.ToDoubleFunction;
 
-import general.PerformanceMeasure;
 import general.SystemState;
 
 /**
  * This class models performance measures that are computed by
  * calling a particular method in the state, by means of reflection.
  * 
- * The objects of this type use reflection to call a particular 
- * method of an object. This allows the SystemState class to
- * generate PerformanceMeasure objects from annotated methods
- * rather than to force the programmer to create explicit
- * subclasses of PerformanceMeasure.
+ * The objects of this type look up a particular method of an object
+ * by reflection, and bind it once with {@link MethodBinder}, so that
+ * computing the measure is as cheap as calling the method directly. 
+ * This allows the SystemState class to generate PerformanceMeasure 
+ * objects from annotated methods rather than to force the programmer 
+ * to create explicit subclasses of PerformanceMeasure.
  * 
  * @author Paul Bouman
  *
  * @param <S> the typ e of the state in the simulation
  */
-public class ReflectivePerformanceMeasure<S extends SystemState<S>> extends PerformanceMeasure<S>
+public class ReflectivePerformanceMeasure<S extends SystemState<S>> extends FunctionalPerformanceMeasure<S>
 {
-	private Method m;
-	
 	public ReflectivePerformanceMeasure(String name, Method m)
 	{
-		super(name);
+		super(name, bind(m));
+	}
+	
+	private static <S> ToDoubleFunction<S> bind(Method m) {
 		if (Modifier.isStatic(m.getModifiers())) {
 			throw new IllegalArgumentException("Static methods are not supported for automated measuring");
 		}
@@ -35,7 +36,7 @@ public class ReflectivePerformanceMeasure<S extends SystemState<S>> extends Perf
 			throw new IllegalArgumentException("Only methods that return a primitive numeric value or a"
 					+ "subclass of Number, such as Integer or Double, can be measured automatically");
 		}
-		this.m = m;
+		return MethodBinder.toDoubleFunction(m);
 	}
 
 	public static boolean isNumericType(Class<?> cls) {
@@ -51,32 +52,4 @@ public class ReflectivePerformanceMeasure<S extends SystemState<S>> extends Perf
 			    || byte.class.isAssignableFrom(cls));
 	}
 	
-	@Override
-	public double compute(S state)
-	{
-		try {
-			Object o = m.invoke(state);
-			if (o == null) {
-				return 0d;
-			}
-			else {
-				Number n = (Number) o;
-				return n.doubleValue();
-			}
-		} catch (IllegalAccessException | IllegalArgumentException e) {
-			throw new RuntimeException("This is unexpected", e);
-		} catch (InvocationTargetException e) {
-			Throwable cause = e.getCause();
-			if (cause instanceof RuntimeException) {
-				throw (RuntimeException) cause;
-			}
-			else if (cause instanceof Error) {
-				throw (Error) cause;
-			}
-			else {
-				throw new RuntimeException("An error occurred while calling an automated performance measure", cause);
-			}
-		}
-	}
-	
 }
@@ -16,15 +16,50 @@ import general.SystemState;
 public class RunnableEvent<S extends SystemState<S>> extends Event<S> {
 
 	private Runnable action;
+	private final EventPool<RunnableEvent<S>> pool;
 	
 	public RunnableEvent(double time, Runnable action) {
 		super(time);
 		this.action = action;
+		this.pool = null;
+	}
+	
+	/**
+	 * Creates an event that belongs to <code>pool</code>. It is scheduled with {@link #reuse(double, Runnable)}, 
+	 * and returns itself to the pool once it has been processed.
+	 * 
+	 * @param pool the pool this event belongs to
+	 */
+	public RunnableEvent(EventPool<RunnableEvent<S>> pool) {
+		super(0);
+		this.pool = pool;
+	}
+	
+	/**
+	 * Prepares a pooled event for being added to the event queue.
+	 * 
+	 * @param time the time at which the event should be executed
+	 * @param action the action to execute
+	 */
+	public void reuse(double time, Runnable action) {
+		if (pool == null) {
+			throw new IllegalStateException("Only events that belong to an EventPool can be reused.");
+		}
+		setTime(time);
+		this.action = action;
 	}
 
 	@Override
 	public void process(S state) {
 		action.run();
 	}
+	
+	@Override
+	public void release() {
+		if (pool != null) {
+			action = null;
+			pool.release(this);
+		}
+	}
 
 }
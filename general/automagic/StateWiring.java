@@ -0,0 +1,68 @@
+package general.automagic;
+
+import java.util.List;
+
+import general.Counter;
+import general.PerformanceMeasure;
+import general.SystemState;
+
+/**
+ * Companion of a SystemState subclass that does everything the annotations in {@link general.annotations} 
+ * ask for with plain Java code instead of reflection: it creates and injects the {@link general.annotations.AutoCounter} 
+ * fields, builds the {@link general.annotations.AutoMeasure} performance measures, and calls the 
+ * {@link general.annotations.Initialize} and {@link general.annotations.StopCriterium} methods.
+ * 
+ * Implementations are generated at compile time by {@link general.annotations.processing.WiringProcessor}, 
+ * and picked up automatically by {@link SystemState} and {@link AutoReplication} through {@link StateWirings#find(Class)}. 
+ * When no companion class is present, the framework falls back to reflection.
+ * 
+ * @author Paul Bouman
+ *
+ * @param <S> the type of the state this wiring belongs to
+ */
+public interface StateWiring<S extends SystemState<S>> {
+
+	/**
+	 * @return a description of the annotated members of the state class at the time the wiring was generated, 
+	 * see {@link StateWirings#signature(Class)}
+	 */
+	String getSignature();
+	
+	/**
+	 * @param factory	Factory that creates a counter for an annotated field
+	 * @return a new counter for every field annotated with {@link general.annotations.AutoCounter}, in declaration order
+	 */
+	List<Counter> createCounters(CounterFactory factory);
+	
+	/**
+	 * Assigns the counters to the annotated fields of <code>state</code>.
+	 * 
+	 * @param state		The state to inject the counters into
+	 * @param counters	The counters as returned by {@link #createCounters(CounterFactory)}
+	 * @throws IllegalStateException if a field was assigned a counter that is not managed by the framework
+	 */
+	void injectCounters(S state, List<Counter> counters);
+	
+	/**
+	 * @return a new performance measure for every method annotated with {@link general.annotations.AutoMeasure}
+	 */
+	List<PerformanceMeasure<S>> createMeasures();
+	
+	/**
+	 * @return true if the state has at least one method annotated with {@link general.annotations.Initialize}
+	 */
+	boolean hasInitializers();
+	
+	/**
+	 * Calls every method annotated with {@link general.annotations.Initialize}.
+	 * 
+	 * @param state	The state to initialize
+	 */
+	void initialize(S state);
+	
+	/**
+	 * @param state	The current state
+	 * @return true if any method annotated with {@link general.annotations.StopCriterium} returns true
+	 */
+	boolean shouldTerminate(S state);
+}
@@ -0,0 +1,192 @@
+package general.automagic;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import general.Counter;
+import general.SystemState;
+import general.annotations.AutoCounter;
+import general.annotations.AutoMeasure;
+import general.annotations.Initialize;
+import general.annotations.StopCriterium;
+
+/**
+ * Looks up the {@link StateWiring} companion classes generated by {@link general.annotations.processing.WiringProcessor}, 
+ * and contains the helper methods that generated code calls.
+ * 
+ * A companion class records the annotated members of the state class it was generated from. When the state class has 
+ * changed since, for example because the companion class is left over from an earlier compile without the processor, 
+ * the companion class is ignored and the framework falls back to reflection.
+ *
+ * @author Paul Bouman
+ *
+ */
+public final class StateWirings {
+
+	/**
+	 * Suffix of the name of a generated companion class.
+	 */
+	public static final String SUFFIX = "_Wiring";
+	
+	private static final ClassValue<StateWiring<?>> WIRINGS = new ClassValue<StateWiring<?>>() {
+		@Override
+		protected StateWiring<?> computeValue(Class<?> type) {
+			return load(type);
+		}
+	};
+	
+	private StateWirings() {
+		
+	}
+	
+	/**
+	 * @param stateClass	The exact class of a system state
+	 * @return the generated wiring of <code>stateClass</code>, or <code>null</code> if there is none or it is out of date
+	 */
+	@SuppressWarnings("unchecked")
+	public static <S extends SystemState<S>> StateWiring<S> find(Class<?> stateClass) {
+		return (StateWiring<S>) WIRINGS.get(stateClass);
+	}
+	
+	/**
+	 * @param stateClass	A system state class
+	 * @return the fully qualified name of the companion class generated for <code>stateClass</code>. 
+	 * For nested classes the <code>$</code> separators are replaced by underscores.
+	 */
+	public static String wiringClassName(Class<?> stateClass) {
+		String name = stateClass.getName();
+		int dot = name.lastIndexOf('.');
+		return name.substring(0, dot + 1) + name.substring(dot + 1).replace('$', '_') + SUFFIX;
+	}
+	
+	private static StateWiring<?> load(Class<?> stateClass) {
+		Class<?> cls;
+		try {
+			cls = Class.forName(wiringClassName(stateClass), true, stateClass.getClassLoader());
+		} catch (ClassNotFoundException ex) {
+			return null;
+		}
+		if (!StateWiring.class.isAssignableFrom(cls)) {
+			return null;
+		}
+		StateWiring<?> wiring;
+		try {
+			wiring = (StateWiring<?>) cls.getConstructor().newInstance();
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException("Unable to instantiate the generated wiring "+cls.getName(), ex);
+		}
+		// a wiring generated from an older version of the class would inject and measure the wrong members
+		return wiring.getSignature().equals(signature(stateClass)) ? wiring : null;
+	}
+	
+	/**
+	 * @param stateClass	A system state class
+	 * @return a description of the annotated members of <code>stateClass</code>, as returned by 
+	 * {@link StateWiring#getSignature()} of a wiring generated from it
+	 */
+	public static String signature(Class<?> stateClass) {
+		List<String> members = new ArrayList<>();
+		for (Field f : stateClass.getDeclaredFields()) {
+			AutoCounter ac = f.getAnnotation(AutoCounter.class);
+			if (ac != null) {
+				members.add(member("counter", f.getName(), f.getType().getName(), Double.toString(ac.initialValue()), ac.value()));
+			}
+		}
+		for (Method m : stateClass.getMethods()) {
+			if (Modifier.isStatic(m.getModifiers())) {
+				continue;
+			}
+			AutoMeasure measure = m.getAnnotation(AutoMeasure.class);
+			if (measure != null) {
+				members.add(member("measure", m.getName(), measure.value()));
+			}
+			if (m.isAnnotationPresent(Initialize.class)) {
+				members.add(member("initialize", m.getName()));
+			}
+			if (m.isAnnotationPresent(StopCriterium.class)) {
+				members.add(member("stop", m.getName(), Integer.toString(m.getParameterCount())));
+			}
+		}
+		return signature(members);
+	}
+	
+	/**
+	 * @param kind	Kind of annotated member
+	 * @param parts	Name of the member and the properties that the generated code depends on
+	 * @return the description of one annotated member
+	 */
+	public static String member(String kind, String... parts) {
+		return kind + " " + String.join(" ", parts);
+	}
+	
+	/**
+	 * @param members	Descriptions of the annotated members of a class, in any order
+	 * @return the signature of the class
+	 */
+	public static String signature(Collection<String> members) {
+		List<String> sorted = new ArrayList<>(members);
+		Collections.sort(sorted);
+		return String.join("\n", sorted);
+	}
+	
+	/**
+	 * @param stateClass	The class that declares the field
+	 * @param name			The name of a private {@link general.annotations.AutoCounter} field
+	 * @return the field, made accessible so generated code can inject it
+	 */
+	public static Field field(Class<?> stateClass, String name) {
+		try {
+			Field f = stateClass.getDeclaredField(name);
+			f.setAccessible(true);
+			return f;
+		} catch (NoSuchFieldException ex) {
+			throw new IllegalStateException("The generated wiring of "+stateClass.getName()+" refers to a missing field '"+name+"'", ex);
+		}
+	}
+	
+	/**
+	 * Assigns a managed counter to a private {@link general.annotations.AutoCounter} field, which the generated code can 
+	 * not assign directly.
+	 * 
+	 * @param state		The state to inject the counter into
+	 * @param field		The field, as returned by {@link #field(Class, String)}
+	 * @param managed	The counter managed by the framework
+	 */
+	public static void inject(Object state, Field field, Counter managed) {
+		try {
+			field.set(state, checkManaged((Counter) field.get(state), managed, field.getName(), field.getDeclaringClass()));
+		} catch (IllegalAccessException ex) {
+			throw new IllegalStateException("Unexpected error while injecting @AutoCounter fields.", ex);
+		}
+	}
+	
+	/**
+	 * Checks that an {@link general.annotations.AutoCounter} field still holds the counter the framework assigned to it.
+	 * 
+	 * @param current		The current value of the field
+	 * @param managed		The counter managed by the framework
+	 * @param field			The name of the field
+	 * @param stateClass	The class that declares the field
+	 * @return <code>managed</code>
+	 */
+	public static <C extends Counter> C checkManaged(Counter current, C managed, String field, Class<?> stateClass) {
+		if (current != null && current != managed) {
+			throw new IllegalStateException("It seems that @AutoCounter annotated field '"+field+"' in "+stateClass.getName()+" was assigned a new unmanaged value. "
+					+ "Please make sure you never assign a value to an automatically managed Counter yourself.");
+		}
+		return managed;
+	}
+	
+	/**
+	 * @param n	The result of an {@link general.annotations.AutoMeasure} method
+	 * @return the value of <code>n</code> as a double, or 0 if it is <code>null</code>
+	 */
+	public static double toDouble(Number n) {
+		return n == null ? 0d : n.doubleValue();
+	}
+}
@@ -0,0 +1,169 @@
+package general.random;
+
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Generates the arrival times of a nonhomogeneous Poisson process with a given intensity function on a finite time
+ * interval, by thinning (Lewis and Shedler, 1979) against a piecewise-constant majorant.
+ *
+ * The interval is divided into pieces of equal length, and the majorant on a piece is an upper bound of the intensity on
+ * that piece, so a candidate arrival is only rejected with a probability that reflects how much the intensity varies
+ * within one piece, rather than over the whole interval. Candidates are drawn by walking through the pieces with one
+ * exponential variate, as in the inversion of the cumulative majorant. The bound on a piece is the largest of a number
+ * of sampled values of the intensity, plus the largest change between two neighbouring samples, which covers peaks
+ * between the samples of smooth intensity functions. Should the intensity nevertheless exceed the majorant at a
+ * candidate, an {@link IllegalStateException} is thrown, rather than silently generating too few arrivals.
+ *
+ * A process holds no random state, so one process can be shared by all replications and threads; the random numbers
+ * come from the stream that is passed to {@link #nextArrivalTime(Random, double)}.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class NonhomogeneousPoissonProcess {
+
+	private static final int DEFAULT_PIECES = 64;
+	private static final int SAMPLES_PER_PIECE = 16;
+
+	private final DoubleUnaryOperator intensity;
+	private final double start;
+	private final double end;
+	private final double width;
+	private final double[] majorant;
+	private final double efficiency;
+
+	public NonhomogeneousPoissonProcess(DoubleUnaryOperator intensity, double start, double end) {
+		this(intensity, start, end, DEFAULT_PIECES);
+	}
+
+	/**
+	 * @param intensity	Intensity function, not negative on the interval
+	 * @param start		Start of the interval, before which there are no arrivals
+	 * @param end		End of the interval, after which there are no arrivals
+	 * @param pieces	Number of pieces of the majorant
+	 */
+	public NonhomogeneousPoissonProcess(DoubleUnaryOperator intensity, double start, double end, int pieces) {
+		if (!(start < end) || Double.isInfinite(start) || Double.isInfinite(end)) {
+			throw new IllegalArgumentException("The interval must be finite and not empty");
+		}
+		if (pieces < 1) {
+			throw new IllegalArgumentException("Number of pieces must be >= 1");
+		}
+		this.intensity = intensity;
+		this.start = start;
+		this.end = end;
+		width = (end - start) / pieces;
+		majorant = new double[pieces];
+		double area = 0;
+		double majorantArea = 0;
+		double h = width / SAMPLES_PER_PIECE;
+		for (int j = 0; j < pieces; j++) {
+			double previous = sample(start + j * width);
+			double max = previous;
+			double change = 0;
+			for (int k = 1; k <= SAMPLES_PER_PIECE; k++) {
+				double value = sample(k == SAMPLES_PER_PIECE ? pieceEnd(j) : start + j * width + k * h);
+				max = Math.max(max, value);
+				change = Math.max(change, Math.abs(value - previous));
+				area += (previous + value) / 2 * h;
+				previous = value;
+			}
+			majorant[j] = max + change;
+			majorantArea += majorant[j] * width;
+		}
+		efficiency = majorantArea == 0 ? 1 : area / majorantArea;
+	}
+
+	private double sample(double t) {
+		double value = intensity.applyAsDouble(t);
+		if (!(value >= 0) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("The intensity at time " + t + " is " + value);
+		}
+		return value;
+	}
+
+	private double pieceEnd(int j) {
+		return j == majorant.length - 1 ? end : start + (j + 1) * width;
+	}
+
+	/**
+	 * Draws the first arrival after <code>time</code>. Successive arrivals are obtained by passing the previous arrival time.
+	 *
+	 * @param random	Source of random numbers
+	 * @param time		Current time
+	 * @return Returns the first arrival time after <code>time</code>, or <code>Double.POSITIVE_INFINITY</code> if there
+	 * 			is no arrival before the end of the interval
+	 */
+	public double nextArrivalTime(Random random, double time) {
+		if (time >= end) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double t = Math.max(time, start);
+		int j = Math.min((int) ((t - start) / width), majorant.length - 1);
+		while (true) {
+			// walk through the pieces until the cumulative majorant has grown by an exponential variate
+			double e = -Math.log(1 - random.nextDouble());
+			while (true) {
+				double pieceEnd = pieceEnd(j);
+				double m = majorant[j];
+				if (m > 0 && t + e / m < pieceEnd) {
+					t += e / m;
+					break;
+				}
+				e -= m * (pieceEnd - t);
+				t = pieceEnd;
+				j++;
+				if (j == majorant.length) {
+					return Double.POSITIVE_INFINITY;
+				}
+			}
+			double lambda = intensity.applyAsDouble(t);
+			if (lambda > majorant[j]) {
+				throw new IllegalStateException("The intensity " + lambda + " at time " + t + " exceeds its bound "
+						+ majorant[j] + "; use more pieces");
+			}
+			if (random.nextDouble() * majorant[j] < lambda) {
+				return t;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param time	Time within the interval
+	 * @return Returns the value of the majorant at <code>time</code>
+	 */
+	public double getMajorant(double time) {
+		if (!(time >= start && time <= end)) {
+			throw new IllegalArgumentException("Time " + time + " lies outside the interval");
+		}
+		return majorant[Math.min((int) ((time - start) / width), majorant.length - 1)];
+	}
+
+	/**
+	 * The expected fraction of the candidate arrivals that is accepted, estimated with the trapezoidal rule from the
+	 * sampled values of the intensity.
+	 *
+	 * @return Returns the integral of the intensity divided by the integral of the majorant
+	 */
+	public double getEfficiency() {
+		return efficiency;
+	}
+
+	/**
+	 *
+	 * @return Returns the start of the interval
+	 */
+	public double getStart() {
+		return start;
+	}
+
+	/**
+	 *
+	 * @return Returns the end of the interval
+	 */
+	public double getEnd() {
+		return end;
+	}
+}
@@ -0,0 +1,366 @@
+package general.random;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import general.statistics.Distributions;
+
+/**
+ * Source of random numbers for a simulation model. It is a {@link Random}, so it can be passed to any code that draws
+ * from a <code>Random</code>, but the numbers come from the combined multiple recursive generator MRG32k3a of
+ * L'Ecuyer (1999) instead of the linear congruential generator of <code>Random</code>. MRG32k3a has a period of about
+ * <code>2^191</code>, passes the common statistical test suites, and a stream is not thread-safe, so drawing a number
+ * needs no atomic operation.
+ *
+ * As in the RngStreams package of L'Ecuyer, Simard, Chen and Kelton (2002), the period is divided into streams of
+ * <code>2^127</code> numbers, and every stream into substreams of <code>2^76</code> numbers. A stream is positioned with
+ * {@link #setSeed(long)}, which selects the first stream of a seed, {@link #advanceStreams(long)} and
+ * {@link #advanceSubstreams(long)}. Both jumps multiply the state with a precomputed power of the transition matrix,
+ * so jumping ahead <code>n</code> streams takes <code>O(log n)</code> time. Streams and substreams never overlap, which
+ * {@link general.SystemState#seedReplication(long)} uses to give every replication its own stream and every purpose its
+ * own substream.
+ *
+ * Every call of {@link #nextDouble()} takes one step of the generator and returns a number with 32 random bits that is
+ * strictly between 0 and 1, so its logarithm is always finite. The other methods of <code>Random</code> are computed from
+ * {@link #next(int)}, which also takes one step. {@link #nextGaussian()} uses inversion, so it takes one step as well.
+ *
+ * A stream can also produce the antithetic counterpart of its numbers. In antithetic mode {@link #nextDouble()} returns
+ * <code>1 - u</code> where it would otherwise have returned <code>u</code>, and every group of bits returned by
+ * {@link #next(int)} is complemented, so the variates that are computed from it by inversion move to the opposite side of
+ * their distribution. Running a replication once normally and once in antithetic mode from the same seed gives a pair of
+ * negatively correlated outcomes, see {@link general.Simulation#setAntithetic(boolean)}.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class RandomStream extends Random {
+
+	private static final long serialVersionUID = 2L;
+
+	private static final long M1 = 4294967087L;
+	private static final long M2 = 4294944443L;
+	private static final long A12 = 1403580;
+	private static final long A13N = 810728;
+	private static final long A21 = 527612;
+	private static final long A23N = 1370589;
+	private static final double NORM = 1.0 / (M1 + 1);
+
+	private static final long[][] A1 = {
+			{ 0, 1, 0 },
+			{ 0, 0, 1 },
+			{ M1 - A13N, A12, 0 } };
+	private static final long[][] A2 = {
+			{ 0, 1, 0 },
+			{ 0, 0, 1 },
+			{ M2 - A23N, 0, A21 } };
+
+	// transition matrices of one stream (2^127 steps) and one substream (2^76 steps)
+	private static final long[][] A1_STREAM = power2(A1, 127, M1);
+	private static final long[][] A2_STREAM = power2(A2, 127, M2);
+	private static final long[][] A1_SUBSTREAM = power2(A1, 76, M1);
+	private static final long[][] A2_SUBSTREAM = power2(A2, 76, M2);
+
+	static {
+		checkReferenceValues();
+	}
+
+	// Random calls setSeed from its constructor, before the fields of this class are initialised
+	private long[] streamStart;
+	private long[] substreamStart;
+	private long[] state;
+	private boolean antithetic;
+	private int repositions;
+
+	/**
+	 * @param seed	Seed that selects the first stream, see {@link #setSeed(long)}
+	 */
+	public RandomStream(long seed) {
+		super(seed);
+	}
+
+	/**
+	 * Creates a stream that starts at the start of the current stream of <code>other</code>.
+	 *
+	 * @param other	Stream to copy the position of
+	 */
+	public RandomStream(RandomStream other) {
+		super(0);
+		setStream(other);
+		antithetic = other.antithetic;
+	}
+
+	/**
+	 * Moves this stream to the start of the first stream of <code>seed</code>. Different seeds give well-spread but
+	 * arbitrary starting points; streams that must not overlap should be obtained from one seed with
+	 * {@link #advanceStreams(long)} instead.
+	 *
+	 * @param seed	Seed that selects the first stream
+	 */
+	@Override
+	public void setSeed(long seed) {
+		if (state == null) {
+			streamStart = new long[6];
+			substreamStart = new long[6];
+			state = new long[6];
+		}
+		// the first three components must be below M1 and not all zero, the last three below M2 and not all zero
+		long z = seed;
+		for (int i = 0; i < 6; i++) {
+			z += 0x9E3779B97F4A7C15L;
+			streamStart[i] = (mix(z) >>> 1) % (i < 3 ? M1 : M2);
+		}
+		if (streamStart[0] == 0 && streamStart[1] == 0 && streamStart[2] == 0) {
+			streamStart[0] = 12345;
+		}
+		if (streamStart[3] == 0 && streamStart[4] == 0 && streamStart[5] == 0) {
+			streamStart[3] = 12345;
+		}
+		resetStartStream();
+	}
+
+	/**
+	 * The SplitMix64 finalizer, which turns consecutive values into well-spread seeds.
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Moves this stream to the start of the current stream of <code>other</code>. Together with
+	 * {@link #advanceSubstreams(long)} this gives substreams of another stream.
+	 *
+	 * @param other	Stream to copy the position of
+	 */
+	public void setStream(RandomStream other) {
+		System.arraycopy(other.streamStart, 0, streamStart, 0, 6);
+		resetStartStream();
+	}
+
+	/**
+	 * Jumps <code>n</code> streams ahead, to the start of a stream that does not overlap with the current one as long as
+	 * fewer than <code>2^127</code> numbers are drawn from it.
+	 *
+	 * @param n	Number of streams to jump, not negative
+	 */
+	public void advanceStreams(long n) {
+		jump(streamStart, A1_STREAM, A2_STREAM, n);
+		resetStartStream();
+	}
+
+	/**
+	 * Jumps <code>n</code> substreams ahead within the current stream, to the start of a substream that does not overlap
+	 * with the current one as long as fewer than <code>2^76</code> numbers are drawn from it.
+	 *
+	 * @param n	Number of substreams to jump, not negative
+	 */
+	public void advanceSubstreams(long n) {
+		jump(substreamStart, A1_SUBSTREAM, A2_SUBSTREAM, n);
+		resetStartSubstream();
+	}
+
+	/**
+	 * Moves this stream back to the start of its current stream, which is also the start of its first substream.
+	 */
+	public void resetStartStream() {
+		System.arraycopy(streamStart, 0, substreamStart, 0, 6);
+		resetStartSubstream();
+	}
+
+	/**
+	 * Moves this stream back to the start of its current substream.
+	 */
+	public void resetStartSubstream() {
+		System.arraycopy(substreamStart, 0, state, 0, 6);
+		repositions++;
+	}
+
+	/**
+	 * Switches antithetic mode on or off. Usually this is done right after the stream has been positioned.
+	 *
+	 * @param antithetic	True to complement all random numbers
+	 */
+	public void setAntithetic(boolean antithetic) {
+		this.antithetic = antithetic;
+		repositions++;
+	}
+
+	/**
+	 *
+	 * @return Returns true if this stream produces the complements of its random numbers
+	 */
+	public boolean isAntithetic() {
+		return antithetic;
+	}
+
+	/**
+	 * Lets a {@link VariateBuffer} notice that the numbers it drew in advance no longer belong to this stream.
+	 *
+	 * @return Returns the number of times this stream was moved or switched to or from antithetic mode
+	 */
+	int getRepositions() {
+		return repositions;
+	}
+
+	/**
+	 * Takes one step of the generator from state <code>s</code>.
+	 *
+	 * @param s	State of both components, which is updated
+	 * @return Returns a number between 1 and <code>M1</code>
+	 */
+	private static long step(long[] s) {
+		long p1 = (A12 * s[1] - A13N * s[0]) % M1;
+		if (p1 < 0) {
+			p1 += M1;
+		}
+		s[0] = s[1];
+		s[1] = s[2];
+		s[2] = p1;
+		long p2 = (A21 * s[5] - A23N * s[3]) % M2;
+		if (p2 < 0) {
+			p2 += M2;
+		}
+		s[3] = s[4];
+		s[4] = s[5];
+		s[5] = p2;
+		return p1 > p2 ? p1 - p2 : p1 - p2 + M1;
+	}
+
+	/**
+	 * @return Returns a uniform number strictly between 0 and 1, with 32 bits of precision
+	 */
+	@Override
+	public double nextDouble() {
+		double u = step(state) * NORM;
+		return antithetic ? 1 - u : u;
+	}
+
+	/**
+	 * @return Returns a standard normal number, computed by inversion of one uniform number
+	 */
+	@Override
+	public double nextGaussian() {
+		return Distributions.normalQuantile(nextDouble());
+	}
+
+	@Override
+	protected int next(int bits) {
+		int r = (int) (step(state) - 1);
+		if (antithetic) {
+			r = ~r;
+		}
+		return r >>> (32 - bits);
+	}
+
+	/**
+	 * Compares the generator with the reference values of the RngStreams package, so that a change to the recurrence,
+	 * the jumps or the modular arithmetic fails as soon as this class is loaded instead of silently changing every
+	 * simulation result. From the state with all six components 12345, the generator returns
+	 * <code>u1 = 0.1270111220...</code> and <code>u2 = 0.3185275653...</code>, the second stream starts at the seed
+	 * published there, and the jump matrices equal the published <code>A1p76</code>, <code>A2p76</code>,
+	 * <code>A1p127</code> and <code>A2p127</code>.
+	 */
+	private static void checkReferenceValues() {
+		long[][] a1p76 = {
+				{ 82758667, 1871391091, 4127413238L },
+				{ 3672831523L, 69195019, 1871391091 },
+				{ 3672091415L, 3528743235L, 69195019 } };
+		long[][] a2p76 = {
+				{ 1511326704, 3759209742L, 1610795712 },
+				{ 4292754251L, 1511326704, 3889917532L },
+				{ 3859662829L, 4292754251L, 3708466080L } };
+		long[][] a1p127 = {
+				{ 2427906178L, 3580155704L, 949770784 },
+				{ 226153695, 1230515664, 3580155704L },
+				{ 1988835001, 986791581, 1230515664 } };
+		long[][] a2p127 = {
+				{ 1464411153, 277697599, 1610723613 },
+				{ 32183930, 1464411153, 1022607788 },
+				{ 2824425944L, 32183930, 2093834863 } };
+		if (!Arrays.deepEquals(A1_SUBSTREAM, a1p76) || !Arrays.deepEquals(A2_SUBSTREAM, a2p76)
+				|| !Arrays.deepEquals(A1_STREAM, a1p127) || !Arrays.deepEquals(A2_STREAM, a2p127)) {
+			throw new IllegalStateException("The jump matrices of MRG32k3a differ from the published ones");
+		}
+		long[] s = new long[6];
+		Arrays.fill(s, 12345);
+		jump(s, A1_STREAM, A2_STREAM, 1);
+		if (!Arrays.equals(s, new long[] { 3692455944L, 1366884236, 2968912127L, 335948734, 4161675175L, 475798818 })) {
+			throw new IllegalStateException("The second stream of MRG32k3a does not start at the published seed");
+		}
+		Arrays.fill(s, 12345);
+		if (step(s) * NORM != 0.12701112204657714 || step(s) * NORM != 0.3185275653967945) {
+			throw new IllegalStateException("MRG32k3a does not reproduce the published reference outputs");
+		}
+	}
+
+	/**
+	 * Multiplies both components of <code>s</code> with the <code>n</code>-th power of a jump matrix.
+	 */
+	private static void jump(long[] s, long[][] a1, long[][] a2, long n) {
+		if (n < 0) {
+			throw new IllegalArgumentException("Can not jump back, but got " + n);
+		}
+		long[] s1 = { s[0], s[1], s[2] };
+		long[] s2 = { s[3], s[4], s[5] };
+		long[][] p1 = a1;
+		long[][] p2 = a2;
+		for (long k = n; k != 0; k >>>= 1) {
+			if ((k & 1) != 0) {
+				s1 = multiply(p1, s1, M1);
+				s2 = multiply(p2, s2, M2);
+			}
+			if (k > 1) {
+				p1 = multiply(p1, p1, M1);
+				p2 = multiply(p2, p2, M2);
+			}
+		}
+		System.arraycopy(s1, 0, s, 0, 3);
+		System.arraycopy(s2, 0, s, 3, 3);
+	}
+
+	/**
+	 * @return Returns <code>a^(2^e) mod m</code>
+	 */
+	private static long[][] power2(long[][] a, int e, long m) {
+		long[][] result = a;
+		for (int i = 0; i < e; i++) {
+			result = multiply(result, result, m);
+		}
+		return result;
+	}
+
+	private static long[][] multiply(long[][] a, long[][] b, long m) {
+		long[][] c = new long[3][3];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				long sum = 0;
+				for (int k = 0; k < 3; k++) {
+					sum = (sum + multiplyMod(a[i][k], b[k][j], m)) % m;
+				}
+				c[i][j] = sum;
+			}
+		}
+		return c;
+	}
+
+	private static long[] multiply(long[][] a, long[] v, long m) {
+		long[] c = new long[3];
+		for (int i = 0; i < 3; i++) {
+			long sum = 0;
+			for (int k = 0; k < 3; k++) {
+				sum = (sum + multiplyMod(a[i][k], v[k], m)) % m;
+			}
+			c[i] = sum;
+		}
+		return c;
+	}
+
+	/**
+	 * @return Returns <code>a * b mod m</code> for <code>a</code> and <code>b</code> below <code>2^32</code>, without overflow
+	 */
+	private static long multiplyMod(long a, long b, long m) {
+		long high = ((a >>> 16) * b % m) << 16;
+		return (high + (a & 0xFFFF) * b) % m;
+	}
+}
@@ -0,0 +1,87 @@
+package general.random;
+
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+/**
+ * Hands out variates of one distribution that are drawn in advance, a buffer at a time, from a {@link RandomStream}.
+ * Filling the buffer in a tight loop is faster than drawing the variates one by one between the events of a model.
+ *
+ * The buffer should be the only user of its stream, so that the variates do not depend on how the drawing of the
+ * buffer and of other code is interleaved. When the stream is moved, for example by
+ * {@link general.SystemState#seedReplication(long)}, the variates that are left in the buffer are discarded, so a
+ * replication only uses variates of its own stream.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class VariateBuffer {
+
+	private final RandomStream stream;
+	private final BiConsumer<Random, double[]> filler;
+	private final double[] values;
+	private int next;
+	private int repositions;
+
+	/**
+	 * @param stream	Stream to draw the variates from
+	 * @param size		Number of variates that are drawn at a time
+	 * @param filler	Function that fills an array with variates, such as {@link Variates#fillNormal(Random, double[])}
+	 */
+	public VariateBuffer(RandomStream stream, int size, BiConsumer<Random, double[]> filler) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Buffer size must be >= 1");
+		}
+		this.stream = stream;
+		this.filler = filler;
+		values = new double[size];
+		next = size;
+		repositions = stream.getRepositions();
+	}
+
+	/**
+	 * @param stream	Stream to draw the variates from
+	 * @param size		Number of variates that are drawn at a time
+	 * @return Returns a buffer of standard normal variates
+	 */
+	public static VariateBuffer normal(RandomStream stream, int size) {
+		return new VariateBuffer(stream, size, Variates::fillNormal);
+	}
+
+	/**
+	 * @param stream	Stream to draw the variates from
+	 * @param size		Number of variates that are drawn at a time
+	 * @return Returns a buffer of exponential variates with rate 1
+	 */
+	public static VariateBuffer exponential(RandomStream stream, int size) {
+		return new VariateBuffer(stream, size, Variates::fillExponential);
+	}
+
+	/**
+	 *
+	 * @return Returns the next variate, refilling the buffer when it is empty
+	 */
+	public double next() {
+		if (next == values.length || repositions != stream.getRepositions()) {
+			filler.accept(stream, values);
+			next = 0;
+			repositions = stream.getRepositions();
+		}
+		return values[next++];
+	}
+
+	/**
+	 * Discards the variates that are left in the buffer.
+	 */
+	public void clear() {
+		next = values.length;
+	}
+
+	/**
+	 *
+	 * @return Returns the stream the variates are drawn from
+	 */
+	public RandomStream getStream() {
+		return stream;
+	}
+}
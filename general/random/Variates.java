@@ -0,0 +1,259 @@
+package general.random;
+
+import java.util.Random;
+
+/**
+ * This is a "static" class that draws variates from the common continuous distributions without calling a logarithm
+ * or an exponential function for most variates.
+ *
+ * Normal and exponential variates are drawn with the ziggurat method of Marsaglia and Tsang (2000), in the variant of
+ * Doornik (2005) that takes the layer and the position within the layer from different random bits. About 99% of the
+ * variates are accepted after one table lookup and one multiplication. Every attempt draws one <code>long</code>
+ * from the generator, so with a {@link RandomStream} it takes two steps of the generator.
+ *
+ * Unlike inversion, the ziggurat method does not draw larger variates from larger uniforms, so the variates of an
+ * antithetic {@link RandomStream} are not negatively correlated with those of the original stream. Models that rely on
+ * antithetic pairs should draw the variates that matter by inversion, for example <code>-Math.log(random.nextDouble())</code>.
+ *
+ * For models that need many variates of the same distribution, {@link #fillNormal(Random, double[])} and
+ * {@link #fillExponential(Random, double[])} fill an array at once, and {@link VariateBuffer} hands out the contents of
+ * such an array one by one.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public final class Variates {
+
+	private static final int NORMAL_LAYERS = 128;
+	private static final double NORMAL_R = 3.442619855899;
+	private static final double NORMAL_V = 9.91256303526217e-3;
+	private static final int EXPONENTIAL_LAYERS = 256;
+	private static final double EXPONENTIAL_R = 7.69711747013104972;
+	private static final double EXPONENTIAL_V = 3.949659822581557e-3;
+
+	// right edges of the layers, from the base layer to the top, and the ratio of the edges of adjacent layers
+	private static final double[] NORMAL_X = new double[NORMAL_LAYERS + 1];
+	private static final double[] NORMAL_RATIO = new double[NORMAL_LAYERS];
+	private static final double[] EXPONENTIAL_X = new double[EXPONENTIAL_LAYERS + 1];
+	private static final double[] EXPONENTIAL_RATIO = new double[EXPONENTIAL_LAYERS];
+
+	private static final double SQRT_2PI = Math.sqrt(2 * Math.PI);
+
+	static {
+		double f = Math.exp(-0.5 * NORMAL_R * NORMAL_R);
+		NORMAL_X[0] = NORMAL_V / f;
+		NORMAL_X[1] = NORMAL_R;
+		for (int i = 2; i < NORMAL_LAYERS; i++) {
+			NORMAL_X[i] = Math.sqrt(-2 * Math.log(NORMAL_V / NORMAL_X[i - 1] + f));
+			f = Math.exp(-0.5 * NORMAL_X[i] * NORMAL_X[i]);
+		}
+		for (int i = 0; i < NORMAL_LAYERS; i++) {
+			NORMAL_RATIO[i] = NORMAL_X[i + 1] / NORMAL_X[i];
+		}
+
+		f = Math.exp(-EXPONENTIAL_R);
+		EXPONENTIAL_X[0] = EXPONENTIAL_V / f;
+		EXPONENTIAL_X[1] = EXPONENTIAL_R;
+		for (int i = 2; i < EXPONENTIAL_LAYERS; i++) {
+			EXPONENTIAL_X[i] = -Math.log(EXPONENTIAL_V / EXPONENTIAL_X[i - 1] + f);
+			f = Math.exp(-EXPONENTIAL_X[i]);
+		}
+		for (int i = 0; i < EXPONENTIAL_LAYERS; i++) {
+			EXPONENTIAL_RATIO[i] = EXPONENTIAL_X[i + 1] / EXPONENTIAL_X[i];
+		}
+	}
+
+	private Variates() {
+
+	}
+
+	/**
+	 * @param random	Source of random bits
+	 * @return Returns a standard normal variate
+	 */
+	public static double normal(Random random) {
+		while (true) {
+			long bits = random.nextLong();
+			int i = (int) bits & (NORMAL_LAYERS - 1);
+			// the upper 53 bits give a uniform number in [-1, 1)
+			double u = (bits >> 11) * 0x1.0p-52;
+			if (Math.abs(u) < NORMAL_RATIO[i]) {
+				return u * NORMAL_X[i];
+			}
+			if (i == 0) {
+				return normalTail(random, u < 0);
+			}
+			double x = u * NORMAL_X[i];
+			double f0 = Math.exp(-0.5 * (NORMAL_X[i] * NORMAL_X[i] - x * x));
+			double f1 = Math.exp(-0.5 * (NORMAL_X[i + 1] * NORMAL_X[i + 1] - x * x));
+			if (f1 + random.nextDouble() * (f0 - f1) < 1) {
+				return x;
+			}
+		}
+	}
+
+	/**
+	 * Draws from the tail beyond <code>NORMAL_R</code> with Marsaglia's method.
+	 */
+	private static double normalTail(Random random, boolean negative) {
+		double x;
+		double y;
+		do {
+			x = Math.log(uniform(random)) / NORMAL_R;
+			y = Math.log(uniform(random));
+		} while (-2 * y < x * x);
+		return negative ? x - NORMAL_R : NORMAL_R - x;
+	}
+
+	/**
+	 * @param random	Source of random bits
+	 * @param mu		Mean
+	 * @param sigma		Standard deviation
+	 * @return Returns a normal variate
+	 */
+	public static double normal(Random random, double mu, double sigma) {
+		return mu + sigma * normal(random);
+	}
+
+	/**
+	 * @param random	Source of random bits
+	 * @return Returns an exponential variate with rate 1
+	 */
+	public static double exponential(Random random) {
+		double shift = 0;
+		while (true) {
+			long bits = random.nextLong();
+			int i = (int) bits & (EXPONENTIAL_LAYERS - 1);
+			// the upper 53 bits give a uniform number in [0, 1)
+			double u = (bits >>> 11) * 0x1.0p-53;
+			if (u < EXPONENTIAL_RATIO[i]) {
+				return shift + u * EXPONENTIAL_X[i];
+			}
+			if (i == 0) {
+				// the tail beyond R is again exponential
+				shift += EXPONENTIAL_R;
+				continue;
+			}
+			double x = u * EXPONENTIAL_X[i];
+			double f0 = Math.exp(x - EXPONENTIAL_X[i]);
+			double f1 = Math.exp(x - EXPONENTIAL_X[i + 1]);
+			if (f1 + random.nextDouble() * (f0 - f1) < 1) {
+				return shift + x;
+			}
+		}
+	}
+
+	/**
+	 * @param random	Source of random bits
+	 * @param rate		Rate, the inverse of the mean
+	 * @return Returns an exponential variate
+	 */
+	public static double exponential(Random random, double rate) {
+		return exponential(random) / rate;
+	}
+
+	/**
+	 * Draws from a normal distribution conditioned on an interval, with the rejection methods of Robert (1995): plain
+	 * normal variates when the interval holds much of the distribution, uniform proposals when the interval is short,
+	 * and shifted exponential proposals in a tail. The expected number of attempts is small for every interval.
+	 *
+	 * @param random	Source of random bits
+	 * @param mu		Mean of the normal distribution
+	 * @param sigma		Standard deviation of the normal distribution, positive
+	 * @param lower		Lower bound of the interval, may be <code>Double.NEGATIVE_INFINITY</code>
+	 * @param upper		Upper bound of the interval, may be <code>Double.POSITIVE_INFINITY</code>
+	 * @return Returns a normal variate between <code>lower</code> and <code>upper</code>
+	 */
+	public static double truncatedNormal(Random random, double mu, double sigma, double lower, double upper) {
+		if (!(sigma > 0)) {
+			throw new IllegalArgumentException("Standard deviation must be > 0");
+		}
+		if (!(lower < upper)) {
+			throw new IllegalArgumentException("Lower bound must be smaller than the upper bound");
+		}
+		double a = (lower - mu) / sigma;
+		double b = (upper - mu) / sigma;
+		double z;
+		if (b <= 0) {
+			// mirror a left interval to the right
+			z = -standardTruncatedNormal(random, -b, -a);
+		}
+		else {
+			z = standardTruncatedNormal(random, a, b);
+		}
+		// rounding may put the result just outside the interval
+		return Math.min(upper, Math.max(lower, mu + sigma * z));
+	}
+
+	/**
+	 * @return Returns a standard normal variate between <code>a</code> and <code>b</code>, where <code>b &gt; 0</code>
+	 */
+	private static double standardTruncatedNormal(Random random, double a, double b) {
+		if (a <= 0) {
+			if (b - a >= SQRT_2PI) {
+				while (true) {
+					double z = normal(random);
+					if (z >= a && z <= b) {
+						return z;
+					}
+				}
+			}
+			return uniformProposal(random, a, b, 0);
+		}
+		double alpha = (a + Math.sqrt(a * a + 4)) / 2;
+		double width = 2 * Math.sqrt(Math.E) / (a + Math.sqrt(a * a + 4)) * Math.exp((a * a - a * Math.sqrt(a * a + 4)) / 4);
+		if (b - a < width) {
+			return uniformProposal(random, a, b, a * a);
+		}
+		while (true) {
+			double z = a + exponential(random) / alpha;
+			double d = z - alpha;
+			if (z <= b && random.nextDouble() <= Math.exp(-0.5 * d * d)) {
+				return z;
+			}
+		}
+	}
+
+	/**
+	 * @param peak	Square of the point of the interval that is closest to 0
+	 */
+	private static double uniformProposal(Random random, double a, double b, double peak) {
+		while (true) {
+			double z = a + (b - a) * random.nextDouble();
+			if (random.nextDouble() <= Math.exp((peak - z * z) / 2)) {
+				return z;
+			}
+		}
+	}
+
+	/**
+	 * @return Returns a uniform number in (0, 1]
+	 */
+	private static double uniform(Random random) {
+		return 1 - random.nextDouble();
+	}
+
+	/**
+	 * Fills an array with standard normal variates.
+	 *
+	 * @param random	Source of random bits
+	 * @param values	Array to fill
+	 */
+	public static void fillNormal(Random random, double[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = normal(random);
+		}
+	}
+
+	/**
+	 * Fills an array with exponential variates with rate 1.
+	 *
+	 * @param random	Source of random bits
+	 * @param values	Array to fill
+	 */
+	public static void fillExponential(Random random, double[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = exponential(random);
+		}
+	}
+}
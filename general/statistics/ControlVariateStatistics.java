@@ -0,0 +1,310 @@
+package general.statistics;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Keeps the means and the co-moments of a number of responses and a number of control variates, from which the control
+ * variate estimates of the means of the responses are computed (Lavenberg and Welch, 1981).
+ *
+ * A control variate is a quantity that is observed together with the responses and whose expectation is known, such as the
+ * number of arrivals in a replication. The estimate of the mean of response <code>y</code> is
+ * <code>mean(y) - beta' (mean(c) - mu)</code>, where <code>mu</code> holds the expectations of the controls and
+ * <code>beta</code> is the least-squares coefficient of the regression of <code>y</code> on the controls. The more of the
+ * variance of a response the controls explain, the smaller the standard error of its estimate.
+ *
+ * Like {@link SummaryStatistics}, the co-moments are updated one observation at a time with Welford's method and can be
+ * merged with the update of Chan, Golub and LeVeque, so observations can be collected on several threads and combined
+ * afterwards.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class ControlVariateStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int responses;
+	private final int controls;
+	private long count;
+	private final double[] responseMeans;
+	private final double[] controlMeans;
+	// co-moments: sums of products of deviations from the means
+	private final double[] responseResponse;
+	private final double[][] responseControl;
+	private final double[][] controlControl;
+
+	/**
+	 * @param responses	Number of responses
+	 * @param controls	Number of control variates, at least 1
+	 */
+	public ControlVariateStatistics(int responses, int controls) {
+		if (responses < 0 || controls < 1) {
+			throw new IllegalArgumentException("At least one control variate is needed");
+		}
+		this.responses = responses;
+		this.controls = controls;
+		responseMeans = new double[responses];
+		controlMeans = new double[controls];
+		responseResponse = new double[responses];
+		responseControl = new double[responses][controls];
+		controlControl = new double[controls][controls];
+	}
+
+	/**
+	 * @param other	Accumulator to copy
+	 */
+	public ControlVariateStatistics(ControlVariateStatistics other) {
+		this(other.responses, other.controls);
+		merge(other);
+	}
+
+	/**
+	 * Adds an observation of the responses and the controls.
+	 *
+	 * @param y	Values of the responses
+	 * @param c	Values of the control variates
+	 */
+	public void add(double[] y, double[] c) {
+		if (y.length != responses || c.length != controls) {
+			throw new IllegalArgumentException("Expected " + responses + " responses and " + controls + " controls");
+		}
+		count++;
+		double[] dy = new double[responses];
+		double[] dc = new double[controls];
+		for (int j = 0; j < responses; j++) {
+			dy[j] = y[j] - responseMeans[j];
+			responseMeans[j] += dy[j] / count;
+		}
+		for (int k = 0; k < controls; k++) {
+			dc[k] = c[k] - controlMeans[k];
+			controlMeans[k] += dc[k] / count;
+		}
+		// the deviation from the old mean times the deviation from the new mean
+		for (int j = 0; j < responses; j++) {
+			responseResponse[j] += dy[j] * (y[j] - responseMeans[j]);
+			for (int k = 0; k < controls; k++) {
+				responseControl[j][k] += dy[j] * (c[k] - controlMeans[k]);
+			}
+		}
+		for (int k = 0; k < controls; k++) {
+			for (int l = 0; l < controls; l++) {
+				controlControl[k][l] += dc[k] * (c[l] - controlMeans[l]);
+			}
+		}
+	}
+
+	/**
+	 * Adds all observations of <code>other</code> to this accumulator. <code>other</code> is not changed.
+	 *
+	 * @param other	Accumulator with the same numbers of responses and controls
+	 */
+	public void merge(ControlVariateStatistics other) {
+		if (other.responses != responses || other.controls != controls) {
+			throw new IllegalArgumentException("Can only merge statistics with the same numbers of responses and controls");
+		}
+		if (other.count == 0) {
+			return;
+		}
+		long n = count + other.count;
+		double weight = (double) count * other.count / n;
+		double share = (double) other.count / n;
+		double[] dy = new double[responses];
+		double[] dc = new double[controls];
+		for (int j = 0; j < responses; j++) {
+			dy[j] = other.responseMeans[j] - responseMeans[j];
+		}
+		for (int k = 0; k < controls; k++) {
+			dc[k] = other.controlMeans[k] - controlMeans[k];
+		}
+		for (int j = 0; j < responses; j++) {
+			responseResponse[j] += other.responseResponse[j] + dy[j] * dy[j] * weight;
+			for (int k = 0; k < controls; k++) {
+				responseControl[j][k] += other.responseControl[j][k] + dy[j] * dc[k] * weight;
+			}
+			responseMeans[j] += dy[j] * share;
+		}
+		for (int k = 0; k < controls; k++) {
+			for (int l = 0; l < controls; l++) {
+				controlControl[k][l] += other.controlControl[k][l] + dc[k] * dc[l] * weight;
+			}
+			controlMeans[k] += dc[k] * share;
+		}
+		count = n;
+	}
+
+	/**
+	 *
+	 * @return Returns the number of observations
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @param control	Index of a control variate
+	 * @return Returns the sample mean of the control variate
+	 */
+	public double getControlMean(int control) {
+		return count == 0 ? Double.NaN : controlMeans[control];
+	}
+
+	/**
+	 * Controls that took the same value in every observation can not be used, and get coefficient 0.
+	 *
+	 * @param response	Index of a response
+	 * @return Returns the least-squares coefficients of the regression of the response on the control variates
+	 */
+	public double[] getCoefficients(int response) {
+		double[] beta = new double[controls];
+		int[] used = usedControls();
+		if (used.length == 0) {
+			return beta;
+		}
+		double[][] l = cholesky(used);
+		double[] b = new double[used.length];
+		for (int u = 0; u < used.length; u++) {
+			b[u] = responseControl[response][used[u]];
+		}
+		double[] x = solve(l, b);
+		for (int u = 0; u < used.length; u++) {
+			beta[used[u]] = x[u];
+		}
+		return beta;
+	}
+
+	/**
+	 * @param response		Index of a response
+	 * @param expectations	Known expectations of the control variates
+	 * @return Returns the control variate estimate of the mean of the response, or <code>NaN</code> if there are no observations
+	 */
+	public double getAdjustedMean(int response, double[] expectations) {
+		checkExpectations(expectations);
+		if (count == 0) {
+			return Double.NaN;
+		}
+		double[] beta = getCoefficients(response);
+		double mean = responseMeans[response];
+		for (int k = 0; k < controls; k++) {
+			mean -= beta[k] * (controlMeans[k] - expectations[k]);
+		}
+		return mean;
+	}
+
+	/**
+	 * Computes the standard error of the control variate estimate from the residual variance of the regression, with the
+	 * correction for the estimated coefficients of Lavenberg and Welch.
+	 *
+	 * @param response		Index of a response
+	 * @param expectations	Known expectations of the control variates
+	 * @return Returns the standard error of the control variate estimate, or <code>NaN</code> if there are too few observations
+	 */
+	public double getAdjustedStandardError(int response, double[] expectations) {
+		checkExpectations(expectations);
+		int[] used = usedControls();
+		double df = getDegreesOfFreedom();
+		if (!(df >= 1)) {
+			return Double.NaN;
+		}
+		double residual = responseResponse[response];
+		double correction = 1.0 / count;
+		if (used.length > 0) {
+			double[][] l = cholesky(used);
+			double[] b = new double[used.length];
+			double[] d = new double[used.length];
+			for (int u = 0; u < used.length; u++) {
+				b[u] = responseControl[response][used[u]];
+				d[u] = controlMeans[used[u]] - expectations[used[u]];
+			}
+			double[] beta = solve(l, b);
+			double[] x = solve(l, d);
+			for (int u = 0; u < used.length; u++) {
+				residual -= beta[u] * b[u];
+				correction += d[u] * x[u];
+			}
+		}
+		return Math.sqrt(Math.max(0, residual) / df * correction);
+	}
+
+	/**
+	 *
+	 * @return Returns the degrees of freedom of the residual variance: the number of observations minus the number of
+	 * 			usable controls minus one
+	 */
+	public double getDegreesOfFreedom() {
+		return count - usedControls().length - 1;
+	}
+
+	private void checkExpectations(double[] expectations) {
+		if (expectations.length != controls) {
+			throw new IllegalArgumentException("Expected " + controls + " expectations");
+		}
+	}
+
+	private int[] usedControls() {
+		int n = 0;
+		int[] used = new int[controls];
+		for (int k = 0; k < controls; k++) {
+			if (controlControl[k][k] > 0) {
+				used[n++] = k;
+			}
+		}
+		return Arrays.copyOf(used, n);
+	}
+
+	/**
+	 * @return Returns the lower triangular Cholesky factor of the co-moment matrix of the used controls
+	 */
+	private double[][] cholesky(int[] used) {
+		int n = used.length;
+		double[][] l = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j <= i; j++) {
+				double sum = controlControl[used[i]][used[j]];
+				for (int k = 0; k < j; k++) {
+					sum -= l[i][k] * l[j][k];
+				}
+				if (i == j) {
+					if (!(sum > 1e-12 * controlControl[used[i]][used[i]])) {
+						throw new IllegalStateException("The control variates are linearly dependent");
+					}
+					l[i][i] = Math.sqrt(sum);
+				}
+				else {
+					l[i][j] = sum / l[j][j];
+				}
+			}
+		}
+		return l;
+	}
+
+	/**
+	 * @return Returns the solution of <code>L L' x = b</code>
+	 */
+	private static double[] solve(double[][] l, double[] b) {
+		int n = b.length;
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			double sum = b[i];
+			for (int k = 0; k < i; k++) {
+				sum -= l[i][k] * y[k];
+			}
+			y[i] = sum / l[i][i];
+		}
+		double[] x = new double[n];
+		for (int i = n - 1; i >= 0; i--) {
+			double sum = y[i];
+			for (int k = i + 1; k < n; k++) {
+				sum -= l[k][i] * x[k];
+			}
+			x[i] = sum / l[i][i];
+		}
+		return x;
+	}
+
+	@Override
+	public String toString() {
+		return "[n=" + count + ", responses=" + responses + ", controls=" + controls + "]";
+	}
+}
@@ -0,0 +1,116 @@
+package general.statistics;
+
+/**
+ * This is a "static" class with the quantile functions that are needed to compute confidence intervals.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public final class Distributions {
+
+	private static final double[] A = {
+			-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+			1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00 };
+	private static final double[] B = {
+			-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+			6.680131188771972e+01, -1.328068155288572e+01 };
+	private static final double[] C = {
+			-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+			-2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00 };
+	private static final double[] D = {
+			7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+			3.754408661907416e+00 };
+	private static final double P_LOW = 0.02425;
+
+	private Distributions() {
+
+	}
+
+	/**
+	 * Computes the quantile function of the standard normal distribution with the rational approximation of
+	 * P.J. Acklam, which has a relative error below 1.2e-9.
+	 *
+	 * @param p	Probability, strictly between 0 and 1
+	 * @return	Returns the value <code>x</code> such that a standard normal variable is smaller than <code>x</code>
+	 * 			with probability <code>p</code>
+	 */
+	public static double normalQuantile(double p) {
+		checkProbability(p);
+		if (p < P_LOW) {
+			return lowerTail(p);
+		}
+		if (p > 1 - P_LOW) {
+			return -lowerTail(1 - p);
+		}
+		double q = p - 0.5;
+		double r = q * q;
+		return (((((A[0] * r + A[1]) * r + A[2]) * r + A[3]) * r + A[4]) * r + A[5]) * q
+				/ (((((B[0] * r + B[1]) * r + B[2]) * r + B[3]) * r + B[4]) * r + 1);
+	}
+
+	private static double lowerTail(double p) {
+		double q = Math.sqrt(-2 * Math.log(p));
+		return (((((C[0] * q + C[1]) * q + C[2]) * q + C[3]) * q + C[4]) * q + C[5])
+				/ ((((D[0] * q + D[1]) * q + D[2]) * q + D[3]) * q + 1);
+	}
+
+	/**
+	 * Computes the quantile function of Student's t distribution with Hill's algorithm (CACM 396), which is
+	 * exact for one and two degrees of freedom and accurate to about six digits otherwise.
+	 *
+	 * @param p					Probability, strictly between 0 and 1
+	 * @param degreesOfFreedom	Degrees of freedom, at least 1
+	 * @return	Returns the value <code>x</code> such that a t distributed variable is smaller than <code>x</code>
+	 * 			with probability <code>p</code>
+	 */
+	public static double studentTQuantile(double p, double degreesOfFreedom) {
+		checkProbability(p);
+		if (!(degreesOfFreedom >= 1)) {
+			throw new IllegalArgumentException("Degrees of freedom must be >= 1");
+		}
+		if (p == 0.5) {
+			return 0;
+		}
+		// Hill's algorithm works with the two-sided tail probability
+		double t = twoSided(2 * Math.min(p, 1 - p), degreesOfFreedom);
+		return p < 0.5 ? -t : t;
+	}
+
+	private static double twoSided(double p, double n) {
+		if (n == 1) {
+			double x = p * Math.PI / 2;
+			return Math.cos(x) / Math.sin(x);
+		}
+		if (n == 2) {
+			return Math.sqrt(2 / (p * (2 - p)) - 2);
+		}
+		double a = 1 / (n - 0.5);
+		double b = 48 / (a * a);
+		double c = ((20700 * a / b - 98) * a - 16) * a + 96.36;
+		double d = ((94.5 / (b + c) - 3) / b + 1) * Math.sqrt(a * Math.PI / 2) * n;
+		double x = d * p;
+		double y = Math.pow(x, 2 / n);
+		if (y > 0.05 + a) {
+			x = normalQuantile(0.5 * p);
+			y = x * x;
+			if (n < 5) {
+				c += 0.3 * (n - 4.5) * (x + 0.6);
+			}
+			c = (((0.05 * d * x - 5) * x - 7) * x - 2) * x + b + c;
+			y = (((((0.4 * y + 6.3) * y + 36) * y + 94.5) / c - y - 3) / b + 1) * x;
+			y = a * y * y;
+			y = y > 0.002 ? Math.exp(y) - 1 : 0.5 * y * y + y;
+		}
+		else {
+			y = ((1 / (((n + 6) / (n * y) - 0.089 * d - 0.822) * (n + 2) * 3) + 0.5 / (n + 4)) * y - 1)
+					* (n + 1) / (n + 2) + 1 / y;
+		}
+		return Math.sqrt(n * y);
+	}
+
+	private static void checkProbability(double p) {
+		if (!(p > 0 && p < 1)) {
+			throw new IllegalArgumentException("Probability must be strictly between 0 and 1, but was " + p);
+		}
+	}
+}
@@ -0,0 +1,266 @@
+package general.statistics;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Estimates quantiles of a stream of values in fixed memory with the KLL sketch of Karnin, Lang and Liberty (2016).
+ *
+ * The sketch keeps a hierarchy of compactors. Level <code>h</code> holds values that each stand for <code>2^h</code>
+ * values of the stream. When a level is full it is sorted, every other value is promoted to the next level, and the rest
+ * is dropped. The capacity of a level shrinks geometrically with its distance from the top level, so the sketch holds
+ * about <code>3k</code> values, and the rank error of a quantile is in the order of <code>1/k</code>.
+ *
+ * Whether the odd or the even values of a level are promoted is decided by a coin flip, as in the original sketch.
+ * The coin is a linear congruential generator with a fixed seed that is part of the sketch, so the sketch of a stream, and
+ * the result of merging sketches in a fixed order, are reproducible. (Simply alternating between odd and even turned out
+ * to bias the quantiles when many small sketches are merged.) Sketches can be merged with {@link #merge(QuantileSketch)}.
+ * The smallest and largest value are kept exactly.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class QuantileSketch implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Value of <code>k</code> used by {@link #QuantileSketch()}, which gives a rank error of about one percent.
+	 */
+	public static final int DEFAULT_K = 200;
+
+	private static final int MIN_CAPACITY = 8;
+	private static final double CAPACITY_RATIO = 2.0 / 3.0;
+
+	private final int k;
+	private double[][] levels;
+	private int[] sizes;
+	private int height;
+	private long count;
+	private long coin = 42;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * @param k	Capacity of the top level, at least 8; larger values give more accurate quantiles
+	 */
+	public QuantileSketch(int k) {
+		if (k < MIN_CAPACITY) {
+			throw new IllegalArgumentException("k must be >= " + MIN_CAPACITY);
+		}
+		this.k = k;
+		levels = new double[1][];
+		sizes = new int[1];
+		height = 1;
+		levels[0] = new double[capacity(0)];
+	}
+
+	/**
+	 * @param other	Sketch to copy
+	 */
+	public QuantileSketch(QuantileSketch other) {
+		k = other.k;
+		height = other.height;
+		levels = new double[other.levels.length][];
+		for (int h = 0; h < height; h++) {
+			levels[h] = other.levels[h].clone();
+		}
+		sizes = other.sizes.clone();
+		coin = other.coin;
+		count = other.count;
+		min = other.min;
+		max = other.max;
+	}
+
+	/**
+	 * Adds a value to the stream.
+	 *
+	 * @param x	Value, not <code>NaN</code>
+	 */
+	public void add(double x) {
+		if (Double.isNaN(x)) {
+			throw new IllegalArgumentException("A quantile sketch can not hold NaN");
+		}
+		count++;
+		min = Math.min(min, x);
+		max = Math.max(max, x);
+		append(0, x);
+		if (sizes[0] >= capacity(0)) {
+			compress();
+		}
+	}
+
+	/**
+	 * Adds all values of <code>other</code> to this sketch. <code>other</code> is not changed.
+	 *
+	 * @param other	Sketch to merge into this one
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.count == 0) {
+			return;
+		}
+		while (height < other.height) {
+			addLevel();
+		}
+		for (int h = 0; h < other.height; h++) {
+			for (int i = 0; i < other.sizes[h]; i++) {
+				append(h, other.levels[h][i]);
+			}
+		}
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		compress();
+	}
+
+	/**
+	 * Estimates a quantile of the values in the stream.
+	 *
+	 * @param q	Probability between 0 and 1
+	 * @return Returns the smallest value in the sketch such that the values up to it stand for at least a fraction
+	 * 			<code>q</code> of the stream, or <code>NaN</code> if the stream is empty
+	 */
+	public double getQuantile(double q) {
+		if (!(q >= 0 && q <= 1)) {
+			throw new IllegalArgumentException("Probability must be between 0 and 1");
+		}
+		if (count == 0) {
+			return Double.NaN;
+		}
+		if (q == 0) {
+			return min;
+		}
+		if (q == 1) {
+			return max;
+		}
+		int n = 0;
+		for (int h = 0; h < height; h++) {
+			n += sizes[h];
+		}
+		// every value of level h stands for 2^h values of the stream
+		double[] values = new double[n];
+		long[] weights = new long[n];
+		long total = 0;
+		int[] order = new int[n];
+		int j = 0;
+		for (int h = 0; h < height; h++) {
+			for (int i = 0; i < sizes[h]; i++) {
+				values[j] = levels[h][i];
+				weights[j] = 1L << h;
+				total += weights[j];
+				order[j] = j;
+				j++;
+			}
+		}
+		sortByValue(order, values);
+		long rank = (long) Math.ceil(q * total);
+		long seen = 0;
+		for (int i = 0; i < n; i++) {
+			seen += weights[order[i]];
+			if (seen >= rank) {
+				return values[order[i]];
+			}
+		}
+		return max;
+	}
+
+	private static void sortByValue(int[] order, double[] values) {
+		// the sketch holds only a few hundred values, so boxing the indices is fine
+		Integer[] boxed = new Integer[order.length];
+		for (int i = 0; i < order.length; i++) {
+			boxed[i] = order[i];
+		}
+		Arrays.sort(boxed, (a, b) -> Double.compare(values[a], values[b]));
+		for (int i = 0; i < order.length; i++) {
+			order[i] = boxed[i];
+		}
+	}
+
+	/**
+	 *
+	 * @return Returns the number of values in the stream
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return Returns the smallest value in the stream, or <code>NaN</code> if the stream is empty
+	 */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/**
+	 *
+	 * @return Returns the largest value in the stream, or <code>NaN</code> if the stream is empty
+	 */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	private int capacity(int h) {
+		int depth = height - 1 - h;
+		return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+	}
+
+	private void append(int h, double x) {
+		if (sizes[h] == levels[h].length) {
+			levels[h] = Arrays.copyOf(levels[h], Math.max(MIN_CAPACITY, 2 * levels[h].length));
+		}
+		levels[h][sizes[h]++] = x;
+	}
+
+	private void addLevel() {
+		if (height == levels.length) {
+			levels = Arrays.copyOf(levels, 2 * height);
+			sizes = Arrays.copyOf(sizes, 2 * height);
+		}
+		levels[height] = new double[MIN_CAPACITY];
+		height++;
+	}
+
+	/**
+	 * Compacts the lowest full level until no level is full.
+	 */
+	private void compress() {
+		boolean compacted = true;
+		while (compacted) {
+			compacted = false;
+			for (int h = 0; h < height; h++) {
+				if (sizes[h] >= capacity(h)) {
+					compact(h);
+					compacted = true;
+					break;
+				}
+			}
+		}
+	}
+
+	private void compact(int h) {
+		if (h == height - 1) {
+			addLevel();
+		}
+		double[] level = levels[h];
+		int size = sizes[h];
+		Arrays.sort(level, 0, size);
+		// with an odd number of values, the smallest one stays behind
+		int start = size % 2;
+		coin = coin * 6364136223846793005L + 1442695040888963407L;
+		int offset = (int) (coin >>> 63);
+		for (int i = start + offset; i < size; i += 2) {
+			append(h + 1, level[i]);
+		}
+		sizes[h] = start;
+	}
+
+	@Override
+	public String toString() {
+		return "[n=" + count + ", median=" + getQuantile(0.5) + "]";
+	}
+}
@@ -0,0 +1,126 @@
+package general.statistics;
+
+import java.io.Serializable;
+
+/**
+ * Keeps the number of observations, their mean, and the sum of squared deviations from the mean, updated one
+ * observation at a time with Welford's method. This takes constant memory and does not lose precision when the
+ * mean is large compared to the standard deviation, unlike the textbook sum of squares.
+ *
+ * Two accumulators can be merged with the update of Chan, Golub and LeVeque, so observations can be collected
+ * on several threads or machines and combined afterwards. The result of a merge depends on the order of the
+ * operands only through rounding; {@link general.Simulation} always merges in the same order to make its
+ * estimates reproducible.
+ *
+ * @author Nemanja Milovanovic
+ *
+ */
+public class SummaryStatistics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private long count;
+	private double mean;
+	private double m2;
+
+	public SummaryStatistics() {
+
+	}
+
+	/**
+	 * @param other	Accumulator to copy
+	 */
+	public SummaryStatistics(SummaryStatistics other) {
+		count = other.count;
+		mean = other.mean;
+		m2 = other.m2;
+	}
+
+	/**
+	 * Adds an observation.
+	 *
+	 * @param x	Observed value
+	 */
+	public void add(double x) {
+		count++;
+		double delta = x - mean;
+		mean += delta / count;
+		m2 += delta * (x - mean);
+	}
+
+	/**
+	 * Adds all observations of <code>other</code> to this accumulator. <code>other</code> is not changed.
+	 *
+	 * @param other	Accumulator to merge into this one
+	 */
+	public void merge(SummaryStatistics other) {
+		if (other.count == 0) {
+			return;
+		}
+		if (count == 0) {
+			count = other.count;
+			mean = other.mean;
+			m2 = other.m2;
+			return;
+		}
+		long n = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * ((double) other.count / n);
+		m2 += other.m2 + delta * delta * ((double) count * other.count / n);
+		count = n;
+	}
+
+	/**
+	 * Removes all observations.
+	 */
+	public void reset() {
+		count = 0;
+		mean = 0;
+		m2 = 0;
+	}
+
+	/**
+	 *
+	 * @return Returns the number of observations
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return Returns the sample mean, or <code>NaN</code> if there are no observations
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 *
+	 * @return Returns the unbiased sample variance, or <code>NaN</code> if there are less than two observations
+	 */
+	public double getVariance() {
+		return count < 2 ? Double.NaN : m2 / (count - 1);
+	}
+
+	/**
+	 *
+	 * @return Returns the sample standard deviation
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 *
+	 * @return Returns the standard error of the sample mean
+	 */
+	public double getStandardError() {
+		return Math.sqrt(getVariance() / count);
+	}
+
+	@Override
+	public String toString() {
+		return "[n=" + count + ", mean=" + getMean() + ", var=" + getVariance() + "]";
+	}
+}